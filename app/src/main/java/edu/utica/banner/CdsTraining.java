@@ -0,0 +1,110 @@
+package edu.utica.banner;
+
+import java.io.*;
+import java.sql.*;
+import java.util.*;
+
+/*
+ * A training run for the application class-data sharing (CDS) archive.
+ *
+ * The build runs this class with -XX:ArchiveClassesAtExit (see the cds profile in
+ * app/pom.xml), so the classes a normal run loads are stored in pending-banner-releases.jsa,
+ * already parsed and verified, and later runs map them in instead of loading them one by one.
+ * It needs no config or database: it builds a matrix from made-up releases for the built-in
+ * products, writes it in every output format, and goes through the release decoding,
+ * metrics, and history code.  The JDBC drivers are loaded too, if they are on the classpath.
+ */
+public final class CdsTraining {
+    private CdsTraining() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        String[][] products = PendingBannerReleases.products;
+        String[] instances = { "PROD", "TEST" };
+        Map<String,List<String>> esmReleases = new HashMap<String,List<String>>();
+
+        for( String[] product : products ) {
+            esmReleases.put(product[PendingBannerReleases.RELEASE], Arrays.asList("9.3.1", "9.3.10", "9.3.2", "8.17.0.2", "9.3.1-beta"));
+        }
+
+        // Decode and classify some GURPOST patches, as a bulk fetch does
+        PendingBannerReleases.GurpostDecoder decoder = new PendingBannerReleases.GurpostDecoder();
+        List<String> codes = PendingBannerReleases.productFields(PendingBannerReleases.GURPOST, 0, products.length);
+        PendingBannerReleases.GurpostClassifier classifier = new PendingBannerReleases.GurpostClassifier(codes);
+        PendingBannerReleases.VersionSet installed = new PendingBannerReleases.VersionSet();
+
+        for( String code : codes ) {
+            String patch = "pcr-000163330_" + code + "9030001";
+
+            for( int m = 0, n = classifier.classify(patch); m < n; m++ ) {
+                if( decoder.decode(patch, classifier.code(m)) ) {
+                    installed.add(PendingBannerReleases.VersionKeys.key(decoder), decoder.toString());
+                }
+            }
+        }
+
+        // Fill in a matrix the way a scan does, and write it in every format
+        RunMetrics metrics = new RunMetrics();
+        PendingBannerReleases.PendingMatrix matrix = new PendingBannerReleases.PendingMatrix(0, products.length, instances, esmReleases);
+
+        for( int x = 0; x < instances.length; x++ ) {
+            long started = System.nanoTime();
+
+            for( int i = 0; i < products.length; i++ ) {
+                matrix.install(x, i, installed);
+                matrix.finishProduct(x, i);
+            }
+
+            matrix.pendingOnlyIn(x, 0, 0);
+
+            metrics.phase("scan", instances[x], started);
+        }
+
+        Writer discard = new BufferedWriter(new Writer() {
+            public void write(char[] buffer, int offset, int length) {
+            }
+
+            public void flush() {
+            }
+
+            public void close() {
+            }
+        });
+
+        for( String format : ReportFormat.NAMES ) {
+            ReportFormat report = ReportFormat.create(format, discard, matrix, 40, 132);
+            report.begin();
+
+            for( int i = 0; i < products.length; i++ ) {
+                matrix.awaitProduct(i);
+                report.product(i);
+            }
+
+            report.end();
+        }
+
+        metrics.printSummary(new PrintStream(new ByteArrayOutputStream()));
+
+        // Record the matrix in a history archive and read it back
+        File history = File.createTempFile("cds", ".pbr");
+
+        try {
+            HistoryArchive.record(history, matrix, System.currentTimeMillis());
+            HistoryArchive.query(history, Arrays.asList(instances[0], products[0][PendingBannerReleases.PRODUCT]),
+                                 new PrintStream(new ByteArrayOutputStream()));
+        }
+        finally {
+            history.delete();
+        }
+
+        // Load the drivers, without connecting to anything
+        for( String jdbc : new String[] { "jdbc:h2:mem:", ConnectionManager.url(ConnectionManager.SERVICE_FORMAT, new String[] { "localhost", "1521", "TRAIN" }) } ) {
+            try {
+                ConnectionManager.driverFor(jdbc);
+            }
+            catch( SQLException se ) {
+                // The driver isn't on the classpath
+            }
+        }
+    }
+}
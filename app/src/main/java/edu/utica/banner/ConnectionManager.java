@@ -0,0 +1,389 @@
+package edu.utica.banner;
+
+import java.io.*;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/*
+ * Opens database connections in parallel.
+ *
+ * Each connection is opened on its own thread, so the ESM database and every Banner instance
+ * connect at the same time.  A Banner instance may only accept one of the two Oracle JDBC URL
+ * formats (the service name format used by pluggable databases and RAC, or the old SID format),
+ * so both are tried at once and the first to connect is kept.  The format which worked is
+ * remembered for each instance in the jdbc_format_cache file, and later runs try that format
+ * first, only racing both again if it fails.
+ *
+ * If run metrics are being collected, the time taken to open each connection is recorded
+ * as a "connect" phase.
+ *
+ * The JDBC drivers are not registered up front.  Each one is loaded the first time a URL
+ * for it is connected to (see connect()), and called directly rather than through
+ * DriverManager, which would load every driver on the classpath.  A run which only uses
+ * the ESM database, or --history, never loads the Oracle driver.
+ */
+final class ConnectionManager {
+    // The Oracle JDBC URL formats, filled in with the host, port, and name
+    static final String SERVICE_FORMAT = "jdbc:oracle:thin:@//%s:%s/%s";
+    static final String SID_FORMAT     = "jdbc:oracle:thin:@%s:%s:%s";
+
+    // The driver class for each JDBC URL prefix
+    private static final String[][] DRIVERS = {
+        {"jdbc:h2:", "org.h2.Driver"},
+        {"jdbc:oracle:", "oracle.jdbc.OracleDriver"},
+    };
+
+    // The drivers which have been loaded, by class name
+    private static final Map<String,Driver> loaded = new ConcurrentHashMap<String,Driver>();
+
+    private final File formatFile;
+    private final Properties formats = new Properties();    // host:port/name => service or sid
+    private boolean formatsChanged;
+    private final RunMetrics metrics;     // null unless metrics are being collected
+
+    // Connecting is mostly waiting, so every attempt gets its own thread
+    private final ExecutorService executor = Executors.newCachedThreadPool(new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "connect");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    /*
+     * Create a connection manager which remembers the Oracle URL formats in formatFile.
+     */
+    ConnectionManager(File formatFile, RunMetrics metrics) {
+        this.formatFile = formatFile;
+        this.metrics = metrics;
+
+        if( formatFile.isFile() ) {
+            try {
+                BufferedReader input = new BufferedReader(new FileReader(formatFile));
+                formats.load(input);
+                input.close();
+            }
+            catch( IOException ioe ) {
+                // Without the cache, both formats are raced for every instance
+                formats.clear();
+            }
+        }
+    }
+
+    /*
+     * Start opening a connection with a single URL.  name is what the connection is called
+     * in the metrics.
+     */
+    Future<Connection> open(final String name, final String jdbc, final String user, final String password) {
+        return executor.submit(new Callable<Connection>() {
+            public Connection call() throws SQLException {
+                long started = System.nanoTime();
+                Connection connection = connect(jdbc, user, password);
+
+                if( metrics != null ) {
+                    metrics.phase("connect", name, started);
+                }
+
+                return connection;
+            }
+        });
+    }
+
+    /*
+     * Start opening a connection to a Banner instance.  See connectOracle().
+     */
+    Future<Connection> openOracle(final String[] info) {
+        return executor.submit(new Callable<Connection>() {
+            public Connection call() throws SQLException {
+                long started = System.nanoTime();
+                Connection connection = connectOracle(info);
+
+                if( metrics != null ) {
+                    metrics.phase("connect", info[PendingBannerReleases.NAME], started);
+                }
+
+                return connection;
+            }
+        });
+    }
+
+    /*
+     * Connect to a Banner instance with whichever URL format it accepts, and set info[JDBC]
+     * to that URL.  If both formats fail, the failure of the service name format is thrown
+     * (or a timeout, if either of them timed out), with the other failure suppressed.
+     *
+     * Returns:
+     *   The open connection
+     */
+    Connection connectOracle(String[] info) throws SQLException {
+        String key = info[PendingBannerReleases.HOST] + ":" + info[PendingBannerReleases.PORT] + "/" + info[PendingBannerReleases.NAME];
+        String cached;
+
+        synchronized( formats ) {
+            cached = formats.getProperty(key);
+        }
+
+        // Try the format which worked last time on its own first
+        if( cached != null ) {
+            String jdbc = url(cached.equals("sid") ? SID_FORMAT : SERVICE_FORMAT, info);
+
+            try {
+                Connection connection = connect(jdbc, info[PendingBannerReleases.USER], info[PendingBannerReleases.PASS]);
+                info[PendingBannerReleases.JDBC] = jdbc;
+                return connection;
+            }
+            catch( SQLTimeoutException ste ) {
+                throw ste;
+            }
+            catch( SQLException se ) {
+                // The instance may have moved to the other format, so race them both below
+            }
+        }
+
+        String[] urls = { url(SERVICE_FORMAT, info), url(SID_FORMAT, info) };
+        String[] names = { "service", "sid" };
+
+        // Set by the first attempt to connect, after which a later one closes its connection
+        final AtomicBoolean connected = new AtomicBoolean();
+
+        ExecutorCompletionService<Integer> attempts = new ExecutorCompletionService<Integer>(executor);
+        Map<Future<Integer>,Integer> which = new HashMap<Future<Integer>,Integer>();
+        final Connection[] winner = new Connection[1];
+
+        for( int f = 0; f < urls.length; f++ ) {
+            final String jdbc = urls[f];
+            final String user = info[PendingBannerReleases.USER];
+            final String pass = info[PendingBannerReleases.PASS];
+            final int format = f;
+
+            which.put(attempts.submit(new Callable<Integer>() {
+                public Integer call() throws SQLException {
+                    Connection connection = connect(jdbc, user, pass);
+
+                    if( ! connected.compareAndSet(false, true) ) {
+                        connection.close();
+                        return -1;
+                    }
+
+                    winner[0] = connection;
+                    return format;
+                }
+            }), f);
+        }
+
+        SQLException[] failures = new SQLException[urls.length];
+
+        for( int n = 0; n < urls.length; n++ ) {
+            Future<Integer> attempt = null;
+
+            try {
+                attempt = attempts.take();
+                int format = attempt.get();
+
+                if( format >= 0 ) {
+                    info[PendingBannerReleases.JDBC] = urls[format];
+                    remember(key, names[format]);
+                    return winner[0];
+                }
+            }
+            catch( InterruptedException ie ) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Interrupted while connecting to " + info[PendingBannerReleases.NAME], ie);
+            }
+            catch( ExecutionException ee ) {
+                failures[which.get(attempt)] = ee.getCause() instanceof SQLException
+                                               ? (SQLException) ee.getCause() : new SQLException(ee.getCause());
+            }
+        }
+
+        // Both formats failed
+        SQLException failure = failures[1] instanceof SQLTimeoutException ? failures[1] : failures[0];
+        failure.addSuppressed(failure == failures[0] ? failures[1] : failures[0]);
+
+        throw failure;
+    }
+
+    /*
+     * Save the Oracle URL formats for the next run, if any have changed.
+     */
+    void saveFormats() {
+        synchronized( formats ) {
+            if( ! formatsChanged ) {
+                return;
+            }
+
+            try {
+                BufferedWriter output = new BufferedWriter(new FileWriter(formatFile));
+                formats.store(output, "Pending Banner Releases Oracle JDBC URL formats");
+                output.close();
+                formatsChanged = false;
+            }
+            catch( IOException ioe ) {
+                System.out.println( "WARNING: Failed to save " + formatFile + ". Both URL formats will be tried on the next run." );
+            }
+        }
+    }
+
+    /*
+     * Stop the connection threads once every connection has been opened.  An attempt which
+     * lost a race may still be running, and closes its own connection when it finishes.
+     */
+    void shutdown() {
+        executor.shutdown();
+    }
+
+    /*
+     * Wait for a connection which was started with open() or openOracle().
+     *
+     * Returns:
+     *   The open connection
+     */
+    static Connection get(Future<Connection> connection) throws SQLException {
+        try {
+            return connection.get();
+        }
+        catch( InterruptedException ie ) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while connecting", ie);
+        }
+        catch( ExecutionException ee ) {
+            if( ee.getCause() instanceof SQLException ) {
+                throw (SQLException) ee.getCause();
+            }
+
+            throw new SQLException(ee.getCause());
+        }
+    }
+
+    /*
+     * Wait at most timeoutMillis (or without a limit, if it is 0) for a connection which was
+     * started with open() or openOracle().  A connection which doesn't open in time is
+     * abandoned, and closes itself if it opens later.
+     *
+     * Returns:
+     *   The open connection
+     */
+    static Connection get(final Future<Connection> connection, long timeoutMillis) throws SQLException {
+        if( timeoutMillis <= 0 ) {
+            return get(connection);
+        }
+
+        try {
+            return connection.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        }
+        catch( InterruptedException ie ) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while connecting", ie);
+        }
+        catch( TimeoutException te ) {
+            abandon(connection);
+            throw new SQLTimeoutException("Timed out while connecting");
+        }
+        catch( ExecutionException ee ) {
+            if( ee.getCause() instanceof SQLException ) {
+                throw (SQLException) ee.getCause();
+            }
+
+            throw new SQLException(ee.getCause());
+        }
+    }
+
+    // Close a connection which was given up on, once it opens
+    private static void abandon(final Future<Connection> connection) {
+        Thread closer = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    connection.get().close();
+                }
+                catch( Exception e ) {
+                    // It never opened
+                }
+            }
+        }, "abandon");
+
+        closer.setDaemon(true);
+        closer.start();
+    }
+
+    /*
+     * Open a connection with the driver for the URL, loading the driver if this is the first
+     * connection to use it.
+     *
+     * Returns:
+     *   The open connection
+     */
+    static Connection connect(String jdbc, String user, String password) throws SQLException {
+        Driver driver = driverFor(jdbc);
+
+        // Anything else is left to whatever drivers DriverManager can find
+        if( driver == null ) {
+            return DriverManager.getConnection(jdbc, user, password);
+        }
+
+        Properties properties = new Properties();
+
+        if( user != null ) {
+            properties.setProperty("user", user);
+        }
+
+        if( password != null ) {
+            properties.setProperty("password", password);
+        }
+
+        Connection connection = driver.connect(jdbc, properties);
+
+        if( connection == null ) {
+            throw new SQLException("The JDBC driver does not accept " + jdbc);
+        }
+
+        return connection;
+    }
+
+    /*
+     * The driver for a JDBC URL, which is loaded the first time it is asked for.
+     *
+     * Returns:
+     *   The driver, or null if the URL isn't for H2 or Oracle
+     */
+    static Driver driverFor(String jdbc) throws SQLException {
+        for( String[] prefix : DRIVERS ) {
+            if( ! jdbc.startsWith(prefix[0]) ) {
+                continue;
+            }
+
+            Driver driver = loaded.get(prefix[1]);
+
+            if( driver == null ) {
+                try {
+                    driver = (Driver) Class.forName(prefix[1]).getDeclaredConstructor().newInstance();
+                }
+                catch( ReflectiveOperationException | LinkageError e ) {
+                    throw new SQLException("The JDBC driver " + prefix[1] + " is not on the classpath", e);
+                }
+
+                loaded.put(prefix[1], driver);
+            }
+
+            return driver;
+        }
+
+        return null;
+    }
+
+    // Fill in a URL format for an instance
+    static String url(String format, String[] info) {
+        return String.format(format, info[PendingBannerReleases.HOST], info[PendingBannerReleases.PORT], info[PendingBannerReleases.NAME]);
+    }
+
+    // Record the format which worked for an instance
+    private void remember(String key, String format) {
+        synchronized( formats ) {
+            if( ! format.equals(formats.getProperty(key)) ) {
+                formats.setProperty(key, format);
+                formatsChanged = true;
+            }
+        }
+    }
+}
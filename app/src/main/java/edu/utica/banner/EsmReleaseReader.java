@@ -0,0 +1,186 @@
+package edu.utica.banner;
+
+import java.sql.*;
+import java.util.*;
+
+import org.h2.mvstore.*;
+import org.h2.mvstore.db.*;
+import org.h2.mvstore.tx.*;
+import org.h2.store.fs.*;
+import org.h2.value.*;
+
+/*
+ * Reads the RELEASE table straight from an ESM database file (.mv.db) with H2's MVStore API,
+ * for h2.db.reader = mvstore.
+ *
+ * Opening the database through JDBC starts a whole H2 database: every table, index, and
+ * setting is loaded and an SQL session is created, just so one query can read three columns.
+ * This opens the file read-only as a plain MVStore instead, with the same AES key H2 makes
+ * from the file password, and reads two maps:
+ *
+ *   table.0  - H2's SYS metadata table, with the CREATE TABLE statement of RELEASE, which
+ *              gives the map RELEASE is stored in and the position of each column
+ *   table.N  - the rows of RELEASE, each an array of its column values
+ *
+ * Only committed values are read, so a row ESM is in the middle of changing is seen as it was
+ * before.  The rows are filtered as the esm_releases query does, and grouped by product.
+ *
+ * This depends on H2's storage format, which isn't a public interface.  It was written for
+ * H2 1.4.200; a file it can't make sense of (an older .h2.db file, a different version of H2
+ * on the classpath, a wrong password, or a RELEASE table without the columns) is reported
+ * with SQLFeatureNotSupportedException, so the caller can read it through JDBC instead.
+ */
+final class EsmReleaseReader {
+    // Columns of the SYS metadata table
+    private static final int SYS_ID  = 0;
+    private static final int SYS_SQL = 3;
+
+    private EsmReleaseReader() {
+    }
+
+    /*
+     * Read the releases from the ESM database given by esm (indexed by the ESM_NAME..ESM_READER
+     * constants).  If gaReleasesOnly is true only GA releases are read, otherwise every
+     * release which isn't obsolete.  The read is recorded as an esm_releases query, if
+     * metrics are given.
+     *
+     * Returns:
+     *   A map of ESM product name (PRODUCT_ID) => release versions for that product
+     *
+     * Throws:
+     *   SQLFeatureNotSupportedException if the file can't be read this way
+     */
+    static Map<String,List<String>> read(String[] esm, boolean gaReleasesOnly, RunMetrics metrics) throws SQLException {
+        long started = System.nanoTime();
+        String jdbc = esm[PendingBannerReleases.ESM_JDBC];
+        String fileName = jdbc.substring("jdbc:h2:".length(), jdbc.indexOf(';')) + ".mv.db";
+
+        try {
+            if( ! FilePath.get(fileName).exists() ) {
+                throw new SQLFeatureNotSupportedException("No MVStore file " + fileName);
+            }
+
+            // The file password is the first of the two passwords.  H2 turns it into the store's
+            // key in two steps which don't quite undo each other, so they are repeated exactly.
+            String password = esm[PendingBannerReleases.ESM_PASS];
+            byte[] key = FilePathEncrypt.getPasswordBytes(password.substring(0, password.indexOf(' ')).toCharArray());
+            char[] encryptionKey = new char[key.length / 2];
+
+            for( int i = 0; i < encryptionKey.length; i++ ) {
+                encryptionKey[i] = (char) (((key[i + i] & 255) << 16) | (key[i + i + 1] & 255));
+            }
+
+            MVStore store = new MVStore.Builder().fileName(fileName).readOnly().encryptionKey(encryptionKey).open();
+
+            try {
+                Map<String,List<String>> releases = new HashMap<String,List<String>>();
+                long rows = 0;
+                long bytes = 0;
+
+                // Find the RELEASE table, and its columns
+                int table = -1;
+                int[] columns = null;
+
+                for( VersionedValue value : table(store, "table.0").values() ) {
+                    Value[] sys = committed(value);
+                    String sql = sys != null ? sys[SYS_SQL].getString() : null;
+
+                    if( sql != null && sql.matches("(?s)CREATE (CACHED|MEMORY) TABLE \"PUBLIC\"\\.\"RELEASE\".*") ) {
+                        table = sys[SYS_ID].getInt();
+                        columns = columns(sql, "PRODUCT_ID", "RELEASE_VERSION", "STATUS");
+                    }
+                }
+
+                if( table < 0 || columns == null ) {
+                    throw new SQLFeatureNotSupportedException("No RELEASE table with PRODUCT_ID, RELEASE_VERSION, and STATUS in " + fileName);
+                }
+
+                for( VersionedValue value : table(store, "table." + table).values() ) {
+                    Value[] row = committed(value);
+                    String status = row != null ? row[columns[2]].getString() : null;
+
+                    if( status == null || (gaReleasesOnly ? ! status.equals("GA") : status.equals("OBSOLETE")) ) {
+                        continue;
+                    }
+
+                    String product = row[columns[0]].getString();
+                    String release = row[columns[1]].getString();
+                    List<String> values = releases.get(product);
+
+                    if( values == null ) {
+                        values = new ArrayList<String>();
+                        releases.put(product, values);
+                    }
+
+                    values.add(release);
+                    rows++;
+                    bytes += (product != null ? product.length() : 0) + (release != null ? release.length() : 0);
+                }
+
+                if( metrics != null ) {
+                    metrics.query(esm[PendingBannerReleases.ESM_NAME], "*", "esm_releases", System.nanoTime() - started, rows, 0, bytes);
+                }
+
+                return releases;
+            }
+            finally {
+                store.closeImmediately();
+            }
+        }
+        catch( RuntimeException | LinkageError e ) {
+            // MVStore reports a bad file or password with IllegalStateException, and a different H2 with a LinkageError
+            throw new SQLFeatureNotSupportedException("Can't read " + fileName + " with MVStore: " + e, e);
+        }
+    }
+
+    /*
+     * The map a table's rows are stored in, keyed by row id.
+     */
+    private static MVMap<Value,VersionedValue> table(MVStore store, String mapName) throws SQLException {
+        if( ! store.hasMap(mapName) ) {
+            throw new SQLFeatureNotSupportedException("No " + mapName + " map in the MVStore file");
+        }
+
+        return store.openMap(mapName, new MVMap.Builder<Value,VersionedValue>()
+                                      .keyType(new ValueDataType())
+                                      .valueType(new VersionedValueType(new ValueDataType())));
+    }
+
+    /*
+     * The column values of a row as last committed, or null if it has only been inserted by
+     * a transaction which is still open.
+     */
+    private static Value[] committed(VersionedValue row) {
+        Object committed = row.getCommittedValue();
+        return committed != null ? ((ValueArray) committed).getList() : null;
+    }
+
+    /*
+     * The positions of the given columns in a CREATE TABLE statement from the SYS table,
+     * which H2 writes with each column on its own line, starting with its quoted name.
+     *
+     * Returns:
+     *   The position of each column, or null if any of them are missing
+     */
+    private static int[] columns(String sql, String... names) {
+        List<String> columns = new ArrayList<String>();
+
+        for( String line : sql.split("\n") ) {
+            if( line.startsWith("    \"") ) {
+                columns.add(line.substring(5, line.indexOf('"', 5)));
+            }
+        }
+
+        int[] positions = new int[names.length];
+
+        for( int i = 0; i < names.length; i++ ) {
+            positions[i] = columns.indexOf(names[i]);
+
+            if( positions[i] < 0 ) {
+                return null;
+            }
+        }
+
+        return positions;
+    }
+}
@@ -0,0 +1,509 @@
+package edu.utica.banner;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.text.*;
+import java.util.*;
+
+/*
+ * An append-only archive of the pending releases found by each run, so their history can be
+ * looked up later (e.g., when a release was installed on PROD, or how long one has been
+ * pending on TEST) without re-running the program.
+ *
+ * The file starts with the magic number "PBRH" and the format version, followed by records
+ * of a type byte, the length of the payload as a varint, and the payload.  There are two
+ * types of record:
+ *
+ *   D - a dictionary string (UTF-8).  The strings are numbered in the order they were
+ *       written, and every product, instance, error, and release in a snapshot is stored as
+ *       the number of its string, so each one is only written once however many snapshots
+ *       use it.
+ *
+ *   S - a snapshot: the time of the run (8 bytes), the products (the strings of the friendly
+ *       and ESM names of each), and for each instance its name, error (0, or the string + 1),
+ *       and the products it finished, each with its pending releases.  Every number but the
+ *       time is a varint.
+ *
+ * A run's new strings are written just before its snapshot, in one write under a file lock.
+ * A record cut short by a crash is ignored when the file is read, and dropped by the next
+ * write.  A query reads the file through a read-only memory map, with the dictionary decoded
+ * and the time and offset of each snapshot indexed in one pass, so it only has to decode the
+ * snapshots in its time range.  A write, which needs only the dictionary and may cut the file
+ * short, reads it into memory instead.
+ */
+final class HistoryArchive {
+    private static final int MAGIC = 0x50425248;   // "PBRH"
+    private static final int FORMAT = 1;
+    private static final int HEADER_SIZE = 8;
+    private static final byte DICTIONARY = 'D';
+    private static final byte SNAPSHOT = 'S';
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final File file;
+    private final List<String> strings = new ArrayList<String>();          // [number] => dictionary string
+    private final Map<String,Integer> numbers = new HashMap<String,Integer>();
+    private long[] times = new long[64];     // [snapshot] => time of the run, in milliseconds
+    private int[] offsets = new int[64];     // [snapshot] => offset of the snapshot's payload in data
+    private int snapshots = 0;
+    private ByteBuffer data;                 // The file's contents (mapped by open()), or null if it is empty
+    private int end = 0;                     // The end of the last complete record, or 0 if there is no header
+
+    private HistoryArchive(File file) {
+        this.file = file;
+    }
+
+    /*
+     * Read the dictionary and index the snapshots of an archive.  A missing file is an empty
+     * archive.
+     */
+    static HistoryArchive open(File file) throws IOException {
+        HistoryArchive archive = new HistoryArchive(file);
+
+        if( file.isFile() ) {
+            RandomAccessFile in = new RandomAccessFile(file, "r");
+
+            try {
+                FileChannel channel = in.getChannel();
+                archive.read(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            }
+            finally {
+                in.close();
+            }
+        }
+
+        return archive;
+    }
+
+    /*
+     * Append a snapshot of the matrix, as found by a run at the given time, to the archive
+     * file.  Only the products each instance finished are recorded, so an instance which
+     * couldn't be scanned isn't mistaken for one with nothing pending.
+     */
+    static void record(File file, PendingBannerReleases.PendingMatrix matrix, long time) throws IOException {
+        RandomAccessFile out = new RandomAccessFile(file, "rw");
+
+        try {
+            // Keep another run from appending at the same time.  The lock belongs to the whole
+            // process, and closing any other channel on the file would release it, so the
+            // archive is read through this one, and the lock is held until it is closed.
+            FileChannel channel = out.getChannel();
+            channel.lock();
+
+            // The archive is read into the heap rather than mapped, as a mapping of the file
+            // would still be there when its incomplete last record is cut off below
+            ByteBuffer contents = ByteBuffer.allocate((int) channel.size());
+
+            while( contents.hasRemaining() ) {
+                if( channel.read(contents) < 0 ) {
+                    break;
+                }
+            }
+
+            contents.flip();
+
+            HistoryArchive archive = new HistoryArchive(file);
+            archive.read(contents);
+            ByteArrayOutputStream records = new ByteArrayOutputStream();
+            ByteArrayOutputStream snapshot = new ByteArrayOutputStream();
+            DataOutputStream fields = new DataOutputStream(snapshot);
+
+            if( archive.end == 0 ) {
+                DataOutputStream header = new DataOutputStream(records);
+                header.writeInt(MAGIC);
+                header.writeInt(FORMAT);
+            }
+
+            fields.writeLong(time);
+            writeVarint(snapshot, matrix.last - matrix.first);
+
+            for( int i = matrix.first; i < matrix.last; i++ ) {
+                writeVarint(snapshot, archive.number(matrix.products[i][PendingBannerReleases.PRODUCT], records));
+                writeVarint(snapshot, archive.number(matrix.products[i][PendingBannerReleases.RELEASE], records));
+            }
+
+            writeVarint(snapshot, matrix.instances.length);
+
+            for( int x = 0; x < matrix.instances.length; x++ ) {
+                String error = matrix.error(x);
+                List<Integer> finished = new ArrayList<Integer>();
+
+                for( int i = matrix.first; i < matrix.last; i++ ) {
+                    if( matrix.error(x, i) == null ) {
+                        finished.add(i);
+                    }
+                }
+
+                writeVarint(snapshot, archive.number(matrix.instances[x], records));
+                writeVarint(snapshot, error != null ? archive.number(error, records) + 1 : 0);
+                writeVarint(snapshot, finished.size());
+
+                for( int i : finished ) {
+                    writeVarint(snapshot, i - matrix.first);
+                    writeVarint(snapshot, matrix.pendingCount(x, i));
+
+                    for( int z = 0; z < matrix.pendingCount(x, i); z++ ) {
+                        writeVarint(snapshot, archive.number(matrix.pending(x, i, z), records));
+                    }
+                }
+            }
+
+            writeRecord(records, SNAPSHOT, snapshot.toByteArray());
+
+            // Drop anything after the last complete record, left by a run which didn't finish writing
+            out.setLength(archive.end);
+            out.seek(archive.end);
+            out.write(records.toByteArray());
+            out.getChannel().force(false);
+        }
+        finally {
+            out.close();
+        }
+    }
+
+    /*
+     * Answer a --history query, with the arguments which followed it:
+     *
+     *   <instance> <product> [<release>] [--from=YYYY-MM-DD] [--to=YYYY-MM-DD]
+     *
+     * The product may be its friendly or ESM name, and a release also matches the releases
+     * which start with it (e.g., 9.3 matches 9.3.5).  Every time each matching release was
+     * pending on the instance is listed, with when it stopped being pending.
+     *
+     * Returns:
+     *   The exit status: 0, or 1 if the arguments or the archive can't be used
+     */
+    static int query(File file, List<String> args, PrintStream out) {
+        List<String> words = new ArrayList<String>();
+        long from = Long.MIN_VALUE;
+        long to = Long.MAX_VALUE;
+        SimpleDateFormat day = new SimpleDateFormat("yyyy-MM-dd");
+
+        try {
+            for( String arg : args ) {
+                if( arg.startsWith("--from=") ) {
+                    from = day.parse(arg.substring(7)).getTime();
+                }
+                else if( arg.startsWith("--to=") ) {
+                    to = day.parse(arg.substring(5)).getTime() + 86400000L - 1;
+                }
+                else {
+                    words.add(arg);
+                }
+            }
+        }
+        catch( ParseException pe ) {
+            out.println( "ERROR: Dates must be given as YYYY-MM-DD." );
+            return 1;
+        }
+
+        if( words.size() < 2 || words.size() > 3 ) {
+            out.println( "Usage: --history <instance> <product> [<release>] [--from=YYYY-MM-DD] [--to=YYYY-MM-DD]" );
+            return 1;
+        }
+
+        try {
+            long started = System.nanoTime();
+            HistoryArchive archive = open(file);
+            int read = archive.history(words.get(0), words.get(1), words.size() > 2 ? words.get(2) : null, from, to, out);
+
+            out.println();
+            out.println(String.format("(%d snapshots read in %.1f ms)", read, (System.nanoTime() - started) / 1e6));
+            return 0;
+        }
+        catch( IOException ioe ) {
+            out.println( "ERROR: Failed to read " + file + ": " + ioe.getMessage() );
+            return 1;
+        }
+    }
+
+    /*
+     * Print each time the matching releases were pending for a product on an instance,
+     * between the from and to times.
+     *
+     * Returns:
+     *   The number of snapshots read
+     */
+    private int history(String instance, String product, String release, long from, long to, PrintStream out) {
+        Set<Integer> instanceNumbers = matching(instance);
+        Set<Integer> productNumbers = matching(product);
+
+        // [release] => the times it was pending, as pairs of start and end (or -1 while it still is)
+        Map<Integer,List<Long>> periods = new HashMap<Integer,List<Long>>();
+        Set<Integer> open = new HashSet<Integer>();
+        long first = -1;
+        long last = -1;
+        int read = 0;
+
+        for( int s = firstSnapshot(from); s < snapshots && times[s] <= to; s++ ) {
+            int[] pending = pending(s, instanceNumbers, productNumbers);
+            read++;
+
+            // The instance didn't finish the product in this run
+            if( pending == null ) {
+                continue;
+            }
+
+            first = first < 0 ? times[s] : first;
+            last = times[s];
+            Set<Integer> now = new HashSet<Integer>();
+
+            for( int number : pending ) {
+                if( release == null || strings.get(number).equals(release) || strings.get(number).startsWith(release + ".") ) {
+                    now.add(number);
+                }
+            }
+
+            // Close the periods of the releases which are no longer pending
+            for( Iterator<Integer> it = open.iterator(); it.hasNext(); ) {
+                int number = it.next();
+
+                if( ! now.contains(number) ) {
+                    List<Long> period = periods.get(number);
+                    period.set(period.size() - 1, times[s]);
+                    it.remove();
+                }
+            }
+
+            // Open a period for each release which has become pending
+            for( int number : now ) {
+                if( open.add(number) ) {
+                    if( ! periods.containsKey(number) ) {
+                        periods.put(number, new ArrayList<Long>());
+                    }
+
+                    periods.get(number).add(times[s]);
+                    periods.get(number).add(-1L);
+                }
+            }
+        }
+
+        if( first < 0 ) {
+            out.println( "No snapshots of " + product + " on " + instance + " were found in " + file + "." );
+            return read;
+        }
+
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm");
+        out.println( "Pending releases of " + product + " on " + instance + ", from " + format.format(new Date(first))
+                     + " to " + format.format(new Date(last)) + ":" );
+        out.println();
+
+        if( periods.isEmpty() ) {
+            out.println( "  (none)" );
+        }
+
+        List<String> releases = new ArrayList<String>();
+
+        for( int number : periods.keySet() ) {
+            releases.add(strings.get(number));
+        }
+
+        Collections.sort(releases, PendingBannerReleases.VersionKeys.ORDER);
+
+        for( String r : releases ) {
+            List<Long> period = periods.get(numbers.get(r));
+
+            for( int p = 0; p < period.size(); p += 2 ) {
+                long start = period.get(p);
+                long stop = period.get(p + 1);
+
+                if( stop < 0 ) {
+                    out.println(String.format("  %-20s pending since %s (%.1f days)", r, format.format(new Date(start)),
+                                              (last - start) / 86400000.0));
+                }
+                else {
+                    out.println(String.format("  %-20s pending from %s until %s (%.1f days)", r, format.format(new Date(start)),
+                                              format.format(new Date(stop)), (stop - start) / 86400000.0));
+                }
+            }
+        }
+
+        return read;
+    }
+
+    /*
+     * Decode a snapshot's pending releases for a product on an instance.
+     *
+     * Returns:
+     *   The string numbers of the pending releases, or null if the snapshot doesn't have
+     *   the product for the instance
+     */
+    private int[] pending(int s, Set<Integer> instanceNumbers, Set<Integer> productNumbers) {
+        ByteBuffer in = data.duplicate();
+        in.position(offsets[s] + 8);
+
+        int product = -1;
+
+        for( int p = 0, count = readVarint(in); p < count; p++ ) {
+            int friendly = readVarint(in);
+            int esm = readVarint(in);
+
+            if( productNumbers.contains(friendly) || productNumbers.contains(esm) ) {
+                product = p;
+            }
+        }
+
+        if( product < 0 ) {
+            return null;
+        }
+
+        for( int x = 0, count = readVarint(in); x < count; x++ ) {
+            boolean wanted = instanceNumbers.contains(readVarint(in));
+            readVarint(in);
+
+            for( int f = 0, finished = readVarint(in); f < finished; f++ ) {
+                int p = readVarint(in);
+                int[] releases = new int[readVarint(in)];
+
+                for( int z = 0; z < releases.length; z++ ) {
+                    releases[z] = readVarint(in);
+                }
+
+                if( wanted && p == product ) {
+                    return releases;
+                }
+            }
+        }
+
+        return null;
+    }
+
+    // The numbers of the dictionary strings which are the given name, ignoring case
+    private Set<Integer> matching(String name) {
+        Set<Integer> matches = new HashSet<Integer>();
+
+        for( int n = 0; n < strings.size(); n++ ) {
+            if( strings.get(n).equalsIgnoreCase(name) ) {
+                matches.add(n);
+            }
+        }
+
+        return matches;
+    }
+
+    // The first snapshot taken at or after a time
+    private int firstSnapshot(long time) {
+        int low = 0;
+        int high = snapshots;
+
+        while( low < high ) {
+            int middle = (low + high) >>> 1;
+
+            if( times[middle] < time ) {
+                low = middle + 1;
+            }
+            else {
+                high = middle;
+            }
+        }
+
+        return low;
+    }
+
+    // The number of a string, adding it to the dictionary (and a record for it to records) if it is new
+    private int number(String string, ByteArrayOutputStream records) throws IOException {
+        Integer number = numbers.get(string);
+
+        if( number == null ) {
+            number = add(string);
+            writeRecord(records, DICTIONARY, string.getBytes(UTF8));
+        }
+
+        return number;
+    }
+
+    private int add(String string) {
+        numbers.put(string, strings.size());
+        strings.add(string);
+
+        return strings.size() - 1;
+    }
+
+    // Decode the dictionary and index the snapshots of the file's contents, stopping at the first incomplete record
+    private void read(ByteBuffer contents) throws IOException {
+        if( contents.remaining() < HEADER_SIZE ) {
+            return;
+        }
+
+        data = contents;
+
+        if( data.getInt(0) != MAGIC ) {
+            throw new IOException("Not a history archive");
+        }
+
+        if( data.getInt(4) != FORMAT ) {
+            throw new IOException("Unknown history archive format " + data.getInt(4));
+        }
+
+        end = HEADER_SIZE;
+        data.position(end);
+
+        try {
+            while( data.hasRemaining() ) {
+                byte type = data.get();
+                int length = readVarint(data);
+
+                if( length < 0 || length > data.remaining() ) {
+                    break;
+                }
+
+                if( type == DICTIONARY ) {
+                    byte[] bytes = new byte[length];
+                    data.get(bytes);
+                    add(new String(bytes, UTF8));
+                }
+                else if( type == SNAPSHOT && length >= 8 ) {
+                    if( snapshots == times.length ) {
+                        times = Arrays.copyOf(times, snapshots * 2);
+                        offsets = Arrays.copyOf(offsets, snapshots * 2);
+                    }
+
+                    times[snapshots] = data.getLong(data.position());
+                    offsets[snapshots++] = data.position();
+                    data.position(data.position() + length);
+                }
+                else {
+                    // A record from a later format is skipped
+                    data.position(data.position() + length);
+                }
+
+                end = data.position();
+            }
+        }
+        catch( BufferUnderflowException bue ) {
+            // The last record was cut short
+        }
+    }
+
+    private static void writeRecord(ByteArrayOutputStream records, byte type, byte[] payload) {
+        records.write(type);
+        writeVarint(records, payload.length);
+        records.write(payload, 0, payload.length);
+    }
+
+    // Write a non-negative int in 7-bit groups, lowest first, with the high bit set on all but the last
+    private static void writeVarint(ByteArrayOutputStream out, int value) {
+        while( (value & ~0x7F) != 0 ) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+
+        out.write(value);
+    }
+
+    private static int readVarint(ByteBuffer in) {
+        int value = 0;
+
+        for( int shift = 0; shift < 32; shift += 7 ) {
+            byte b = in.get();
+            value |= (b & 0x7F) << shift;
+
+            if( (b & 0x80) == 0 ) {
+                return value;
+            }
+        }
+
+        return -1;
+    }
+}
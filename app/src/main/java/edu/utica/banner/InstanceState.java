@@ -0,0 +1,259 @@
+package edu.utica.banner;
+
+import java.io.*;
+import java.sql.*;
+import java.util.*;
+
+/*
+ * The releases installed in one Banner instance as of the last incremental run, along with
+ * the change markers they were read under.
+ *
+ * A change marker is the row count and a maximum value (the activity date for GURWAPP,
+ * GURWADB, and GURPOST, or the release for a *VERS table) of the rows a product's releases
+ * are read from.  Both can be read with one cheap aggregate query per table, and both change
+ * whenever a release is installed.  If none of a product's markers have changed since its
+ * releases were last read, they are taken from the state file instead of being queried.
+ *
+ * The state is kept in a properties file in the incremental_state_dir directory, with one
+ * file for each Banner instance and two entries for each product:
+ *
+ *   <ESM name>.marker    = the product's markers when its releases were read
+ *   <ESM name>.installed = the releases which were installed, separated by commas
+ *
+ * Watch mode keeps the state in memory instead (see inMemory()), and uses the markers as
+ * its change signal.
+ */
+final class InstanceState {
+    private final File file;                                // null if the state is only kept in memory
+    private final Properties saved = new Properties();      // The state from earlier runs
+    private final Properties current = new Properties();    // The state recorded by this run
+    private final Map<String,String> markers = new HashMap<String,String>();  // Table markers read by this run
+
+    private InstanceState(File file) {
+        this.file = file;
+    }
+
+    /*
+     * Load the state of a Banner instance, or start with an empty state if this is the
+     * first incremental run for the instance.
+     */
+    static InstanceState load(File dir, String[] oracleInfo) {
+        String name = (oracleInfo[PendingBannerReleases.HOST] + "_" + oracleInfo[PendingBannerReleases.PORT] + "_"
+                       + oracleInfo[PendingBannerReleases.NAME]).replaceAll("[^A-Za-z0-9._-]", "_");
+
+        InstanceState state = new InstanceState(new File(dir, name + ".state"));
+
+        if( state.file.isFile() ) {
+            try {
+                BufferedReader input = new BufferedReader(new FileReader(state.file));
+
+                try {
+                    state.saved.load(input);
+                }
+                finally {
+                    input.close();
+                }
+            }
+            catch( IOException ioe ) {
+                // Treat an unreadable state file as no state, so every product is queried
+                System.out.println( "WARNING: Failed to read " + state.file + ". All products will be queried." );
+                state.saved.clear();
+            }
+        }
+
+        return state;
+    }
+
+    /*
+     * Start an empty state which is kept in memory, and carried from one scan to the next
+     * by save().
+     */
+    static InstanceState inMemory() {
+        return new InstanceState(null);
+    }
+
+    /*
+     * Read the current change markers of the tables used by products[start..end).
+     */
+    void readMarkers(PreparedQueries oracle, int start, int end) throws SQLException {
+        List<String> names;
+
+        // A name with no rows isn't returned, so forget the markers of any earlier read
+        markers.clear();
+
+        if( PendingBannerReleases.productFields(PendingBannerReleases.GURPOST, start, end).size() > 0 ) {
+            ResultSet result = oracle.execute("gurpost_marker");
+
+            while( result.next() ) {
+                markers.put("gurpost", marker(result, 1));
+            }
+
+            result.close();
+        }
+
+        names = PendingBannerReleases.productFields(PendingBannerReleases.GURWADB, start, end);
+
+        if( names.size() > 0 ) {
+            readGroupedMarkers(oracle.executeIn("gurwadb_marker", names), "gurwadb.");
+        }
+
+        names = PendingBannerReleases.productFields(PendingBannerReleases.GURWAPP, start, end);
+
+        if( names.size() > 0 ) {
+            readGroupedMarkers(oracle.executeIn("gurwapp_marker", names), "gurwapp.");
+        }
+
+        names = PendingBannerReleases.productFields(PendingBannerReleases.VERSTBL, start, end);
+
+        if( names.size() > 0 ) {
+            readGroupedMarkers(oracle.executeVers("vers_table_marker", names), "verstbl.");
+        }
+    }
+
+    /*
+     * Check whether a product's releases were read under the markers it has now.
+     */
+    boolean isUnchanged(String[] product) {
+        String release = product[PendingBannerReleases.RELEASE];
+
+        return saved.getProperty(release + ".installed") != null
+            && productMarker(product).equals(saved.getProperty(release + ".marker"));
+    }
+
+    /*
+     * The releases installed for an unchanged product, as of the run which last read them.
+     */
+    List<String> installed(String[] product) {
+        String release = product[PendingBannerReleases.RELEASE];
+        String installed = saved.getProperty(release + ".installed", "");
+
+        current.setProperty(release + ".marker", saved.getProperty(release + ".marker"));
+        current.setProperty(release + ".installed", installed);
+
+        List<String> releases = new ArrayList<String>();
+
+        for( String r : installed.split(",") ) {
+            if( r.length() > 0 ) {
+                releases.add(r);
+            }
+        }
+
+        return releases;
+    }
+
+    /*
+     * Record the releases which were just read for a product, from each of its tables.
+     */
+    void update(String[] product, List<List<String>> installed) {
+        String release = product[PendingBannerReleases.RELEASE];
+        StringBuilder releases = new StringBuilder();
+
+        for( List<String> table : installed ) {
+            for( String r : table ) {
+                if( r == null ) {
+                    continue;
+                }
+
+                if( releases.length() > 0 ) {
+                    releases.append(',');
+                }
+
+                releases.append(r);
+            }
+        }
+
+        current.setProperty(release + ".marker", productMarker(product));
+        current.setProperty(release + ".installed", releases.toString());
+    }
+
+    /*
+     * The markers last read, as one string which changes whenever any of them do.
+     */
+    String signal() {
+        return new TreeMap<String,String>(markers).toString();
+    }
+
+    /*
+     * Save the state for the next run.  Products which weren't part of this run keep their
+     * state from earlier runs.
+     */
+    void save() {
+        Properties merged = new Properties();
+        merged.putAll(saved);
+        merged.putAll(current);
+
+        // The next scan with this state starts from what was just saved
+        saved.putAll(current);
+        current.clear();
+
+        if( file == null ) {
+            return;
+        }
+
+        try {
+            file.getAbsoluteFile().getParentFile().mkdirs();
+
+            // Write a new file and move it into place, so an interrupted run can't leave a partial state
+            File tmp = new File(file.getPath() + ".tmp");
+            BufferedWriter output = new BufferedWriter(new FileWriter(tmp));
+            merged.store(output, "Pending Banner Releases incremental state");
+            output.close();
+
+            if( ! tmp.renameTo(file) && ! (file.delete() && tmp.renameTo(file)) ) {
+                throw new IOException("Failed to rename " + tmp);
+            }
+        }
+        catch( IOException ioe ) {
+            System.out.println( "WARNING: Failed to save " + file + ". The next run will query every product." );
+        }
+    }
+
+    // The markers of every table a product's releases are read from, joined into one string
+    private String productMarker(String[] product) {
+        StringBuilder marker = new StringBuilder();
+
+        if( product[PendingBannerReleases.GURPOST].length() > 0 ) {
+            marker.append(markerOf("gurpost"));
+        }
+
+        marker.append('|');
+
+        if( product[PendingBannerReleases.GURWADB].length() > 0 ) {
+            marker.append(markerOf("gurwadb." + product[PendingBannerReleases.GURWADB]));
+        }
+
+        marker.append('|');
+
+        if( product[PendingBannerReleases.GURWAPP].length() > 0 ) {
+            marker.append(markerOf("gurwapp." + product[PendingBannerReleases.GURWAPP]));
+        }
+
+        marker.append('|');
+
+        if( product[PendingBannerReleases.VERSTBL].length() > 0 ) {
+            marker.append(markerOf("verstbl." + product[PendingBannerReleases.VERSTBL]));
+        }
+
+        return marker.toString();
+    }
+
+    // A table marker, where a name with no rows (and so no marker) counts as zero rows
+    private String markerOf(String key) {
+        String marker = markers.get(key);
+        return marker != null ? marker : "0/null";
+    }
+
+    // Read (name, count, max) rows into the table markers, and close the result set
+    private void readGroupedMarkers(ResultSet result, String prefix) throws SQLException {
+        while( result.next() ) {
+            markers.put(prefix + result.getString(1), marker(result, 2));
+        }
+
+        result.close();
+    }
+
+    // Format the (count, max) columns starting at column into a marker
+    private static String marker(ResultSet result, int column) throws SQLException {
+        return result.getLong(column) + "/" + result.getString(column + 1);
+    }
+}
@@ -0,0 +1,2302 @@
+/*
+ * PROGRAM:
+ * PendingBannerReleases
+ *
+ * VERSION:
+ * 1.5.0
+ *
+ * DESCRIPTION:
+ * This program reads data from both the ESM H2 database and the Banner Oracle database,
+ * and determines which releases have not yet been installed for a given product.
+ *
+ * AUTHOR:
+ * Dave Parker
+ * Utica College IITS
+ *
+ * DATE:
+ * August 19, 2019
+ *
+ * CHANGELOG:
+ *
+ * November 8, 2019:
+ * - Version 1.1.0.
+ * - Added side-by-side output for up to three Banner database instances.
+ *
+ * August 25, 2021:
+ * - Version 1.2.0.
+ * - Removed obsolete releases from the results.
+ * - Added ga_releases_only config parameter.
+ *
+ * December 23, 2021:
+ * - Version 1.3.0.
+ * - Added checks for missing config values for Oracle databases.
+ * - Added code to handle database connection failures for H2 and Oracle.
+ *
+ * January 24, 2023:
+ * - Version 1.4.0.
+ * - Changed the default Oracle JDBC connection string to the format supported by
+ *   pluggable databases RAC.
+ * - If the first connection attempt to an Oracle database fails, retry with the
+ *   old JDBC connection string format.
+ *
+ * October 16, 2026:
+ * - Version 1.5.0.
+ * - Load the ESM releases for all products with a single query per run instead of
+ *   once per product for each Banner instance.
+ * - Added bulk_fetch config parameter to read GURWAPP, GURWADB, and the *VERS tables
+ *   with one query each per Banner instance.
+ * - Scan the Banner instances concurrently.  Added max_concurrent_scans config parameter.
+ * - Removed the limit of three Banner instances.  Any number of orcl.dbN blocks may be
+ *   configured, and wide tables are split into pages.  Added page_width config parameter.
+ * - Products are now shown in the same order as the selection menu.
+ * - Sort releases numerically (e.g., 9.9 before 9.10) and compare them by their numeric
+ *   value, using hash lookups instead of repeated list scans.
+ * - Decode GURPOST patch names without creating intermediate strings, and skip rows which
+ *   can't be decoded instead of stopping the program.
+ * - Added a Maven build, with JMH benchmarks for the release processing in a separate
+ *   module.  The program is now in the edu.utica.banner package.
+ * - Added h2.db.mode config parameter.  In snapshot mode the live ESM database file is
+ *   read in place, copying only the blocks which are needed, instead of copying the
+ *   whole file before each run.
+ * - Added incremental and incremental_state_dir config parameters.  In incremental mode,
+ *   only the products whose tables have changed since the last run are queried.
+ * - Added a daemon mode (--daemon) which refreshes the pending releases on a schedule and
+ *   serves them from memory as JSON over HTTP.  Added daemon_bind_address, daemon_port,
+ *   daemon_refresh_seconds, and daemon_cache_ttl_seconds config parameters.
+ * - Connect to the ESM database and every Banner instance at the same time, trying both
+ *   Oracle JDBC URL formats at once.  The format which worked for each instance is kept
+ *   in a file for later runs.  Added jdbc_format_cache config parameter.
+ * - Run the Banner queries as prepared statements, with the product names as bind
+ *   variables, and reuse each statement for every product.  *VERS table names are checked
+ *   against the tables in products[][].  Added fetch_size config parameter.
+ * - Write the report through a single buffered writer, with the table layout worked out
+ *   once, and write each product as soon as every instance has finished it.  Added
+ *   output_format config parameter, for CSV or JSON lines output instead of the table.
+ * - Added metrics and metrics_file config parameters, to time each phase of the run and
+ *   count the rows, round trips, and bytes of each query.  The metrics are shown at the end
+ *   of the run, appended to a file, and sent as Java Flight Recorder events.
+ * - Added product_discovery, product_catalog_file, and product_catalog_max_age_hours
+ *   config parameters.  In discovery mode the products are read from the ESM RELEASE table,
+ *   GURWAPP, GURWADB, and the *VERS tables which exist, instead of the built-in list.
+ * - Open the database connections while the menu is shown.
+ * - Added fleet mode, to compare the Banner instances with several ESM servers in one run
+ *   and one report.  Each ESM file is read once, and all of the instances are scanned in
+ *   one pool of max_concurrent_scans workers.  Added h2.db.name, esm.N.*, and
+ *   orcl.dbN.esm config parameters.
+ * - Added a watch mode (--watch) which polls each Banner instance's change markers and
+ *   reports releases as they are installed, polling less often while nothing changes.
+ *   Added watch_min_interval_seconds and watch_max_interval_seconds config parameters.
+ * - Added query_timeout_seconds and run_timeout_seconds config parameters.  A Banner
+ *   instance which can't be connected to, fails, or misses the deadline is marked in the
+ *   report instead of stopping the run, and the program exits with status 2.
+ * - Added server_side_diff config parameter.  The ESM releases are sent to each Banner
+ *   instance as one collection bind, and a single query returns only the pending releases.
+ * - In bulk_fetch mode, GURPOST is also read with one query per Banner instance, and each
+ *   patch is routed to its products by a trie of the GURPOST product codes.
+ * - Added history and history_file config parameters, to keep the pending releases found by
+ *   each run in a compact archive, and a --history option to look up when releases were
+ *   pending on an instance.
+ * - Start faster.  The JDBC drivers are loaded when the first connection is opened, the
+ *   shell script uses only the program and driver jars, and a class-data sharing archive
+ *   is made by the build (CdsTraining) or the first run on Java 13 or later.
+ * - Added an end-to-end load test (LoadTest, in the benchmarks module), which runs against
+ *   a synthetic ESM database and embedded H2 databases standing in for Banner.
+ * - Keep each instance's installed releases as a bitset over the ESM release lists, and
+ *   work out the pending releases, and the releases pending in one instance but installed
+ *   in another, a word at a time.  Added /compare to daemon mode.
+ * - Added h2.db.reader config parameter.  With h2.db.reader = mvstore, the RELEASE table
+ *   is read straight from the .mv.db file with H2's MVStore API (EsmReleaseReader), without
+ *   starting an H2 database or SQL session, falling back to JDBC for files it can't read.
+ */
+
+package edu.utica.banner;
+
+import java.lang.*;
+import java.util.*;
+import java.sql.*;
+import java.io.*;
+import java.util.concurrent.*;
+
+public class PendingBannerReleases {
+    // Program info
+    static final String PROGRAM = "Pending Banner Releases";
+    static final String VERSION = "1.5.0";
+    static final String AUTHOR = "Dave Parker <dparker@utica.edu>";
+
+    // The file from which to read the database connection info
+    static final String CONFIG_FILE = "config.properties";
+
+    //
+    // Array of product info
+    //
+    // Entry format:
+    // [Friendly name][ESM name][GURPOST name][GURWADB name][GURWAPP name][*VERS table name]
+    //
+    static final String[][] BUILT_IN_PRODUCTS = {
+        {"Banner 9x Database Upgrade","BXE_DBU","cxedb","BannerDbUpgrade","",""},
+        {"Banner Accounts Receivable","BNR_AR","tas","","AccountsReceivable","TURVERS"},
+        {"Banner Admin Common","BNR_ADMCOM","","","AdminCommon",""},
+        {"Banner Advancement","BNR_ADV","alu","","Advancement","AURVERS"},
+        {"Banner Advancement Self-Service 8","BNR_ADVSS","bwa","","","BWAVERS"},
+        {"Banner Application Navigator","BXE_APPNAV","appNav","ApplicationNavigator","ApplicationNavigator",""},
+        {"Banner Communication Management","BXE_BCM","bcm","CommunicationManagement","CommunicationManagement",""},
+        {"Banner Employee Self-Service 8","BNR_EMPSS","bwp","","","BWPVERS"},
+        {"Banner Employee Self-Service 9","BXE_EMPSS","ess","EmployeeSelfService","EmployeeSelfService",""},
+        {"Banner Extensibility","BXE_BEXT","bext","BannerExtensibility","BannerExtensibility",""},
+        {"Banner Faculty and Advisor Self-Service 8","BNR_FACSS","bwl","","","BWLVERS"},
+        {"Banner Faculty Self-Service 9","BXE_FACSS","","FacultySelfService","FacultySelfService",""},
+        {"Banner Finance","BNR_FIN","fin","","Finance","FURVERS"},
+        {"Banner Finance Self-Service 8","BNR_FINSS","fss","","",""},
+        {"Banner Finance Self-Service 9","BXE_FINSS","fss","BannerFinanceSSB","BannerFinanceSSB",""},
+        {"Banner Financial Aid","BNR_FINAID","res","","FinancialAid","RURVERS"},
+        {"Banner Financial Aid Self-Service 8","BNR_FINAIDSS","bwr","","","BWRVERS"},
+        {"Banner General","BNR_GEN","gen","","General","GURVERS"},
+        {"Banner General Self-Service","BXE_GENSS","","BannerGeneralSsb","BannerGeneralSsb",""},
+        {"Banner HR and Payroll","BNR_HRPAY","pay","","HumanResources","PURVERS"},
+        {"Banner Position Control","BNR_POSCTL","pos","","PositionControl","NURVERS"},
+        {"Banner Student","BNR_STU","stu","","Student","SURVERS"},
+        {"Banner Student eTranscript","BXE_ETRANS","","eTranscript","eTranscript",""},
+        {"Banner Student Self-Service 8","BNR_STUSS","bws","","","BWSVERS"},
+        {"Banner Student Self-Service 9","BXE_STUSS2","bsss","StudentSelfService","StudentSelfService",""},
+        {"Banner Student Registration Self-Service","BXE_STUREGSSB","regssb","StudentRegistrationSsb","StudentRegistrationSsb",""},
+        {"Banner Web General","BNR_WEBGEN","bwg","","","BWGVERS"},
+        {"Banner Web Tailor","BNR_WEBTLR","twb","","","TWGRVERS"},
+    };
+
+    // The products being looked for: the built-in products, or the catalog built by ProductCatalog
+    // in product_discovery mode.  Only replaced before a run's scans start.
+    static String[][] products = BUILT_IN_PRODUCTS;
+
+    /*
+     * These constants are here because I like to refrence things by name so I don't get confused later.
+     */
+
+    // Constants for the fields in the products[][] array
+    static final int PRODUCT = 0;  // Product name in a friendly format is in products[][0]
+    static final int RELEASE = 1;  // Product name from ESM table RELEASE is in products[][1]
+    static final int GURPOST = 2;  // Product name from GURPOST is in products[][2]
+    static final int GURWADB = 3;  // Product name from GURWADB is in products[][3]
+    static final int GURWAPP = 4;  // Product name from GURWAPP is in products[][4]
+    static final int VERSTBL = 5;  // Product *VERS table name is in products[][5]
+
+    // Constants for fields in the oracleInfo[] array
+    static final int HOST = 0;  // Oracle database host
+    static final int PORT = 1;  // Oracle database port
+    static final int NAME = 2;  // Oracle database name
+    static final int USER = 3;  // Oracle database username
+    static final int PASS = 4;  // Oracle database password
+    static final int JDBC = 5;  // Oracle database JDBC connection string
+    static final int ESM  = 6;  // Name of the ESM server the database is compared with, or "" for the first one
+
+    // Constants for fields in the esmInfo[] array
+    static final int ESM_NAME    = 0;  // ESM server name, as used by orcl.dbN.esm
+    static final int ESM_FILE    = 1;  // ESM H2 database file
+    static final int ESM_JDBC    = 2;  // ESM H2 database JDBC connection string
+    static final int ESM_USER    = 3;  // ESM H2 database username
+    static final int ESM_PASS    = 4;  // ESM H2 database file and user passwords
+    static final int ESM_ALIASES = 5;  // Every name configured for the same file, separated by commas
+    static final int ESM_READER  = 6;  // How the RELEASE table is read: "jdbc", or "mvstore" to read the file directly
+
+    // Width of each Banner instance column in the output
+    static final int COLUMN_WIDTH = 20;
+
+    // Seconds to wait for a scan to stop after its query has been cancelled at the deadline
+    static final int CANCEL_GRACE_SECONDS = 5;
+
+    /*
+     * Release version numbers packed into a long, so they can be compared and hashed as
+     * numbers rather than strings.
+     *
+     * A version of up to MAX_SEGMENTS numeric segments (each no greater than MAX_SEGMENT)
+     * is packed with the first segment in the highest bits, followed by the number of
+     * segments in the lowest four bits.  Comparing two keys as unsigned longs therefore
+     * orders them numerically, segment by segment (e.g., 9.9 < 9.10 < 9.10.0).  Anything
+     * else (letters, empty segments, too many digits) has no key and is compared as text.
+     */
+    static final class VersionKeys {
+        static final long NONE = -1L;           // The key of a version which isn't purely numeric
+        static final int MAX_SEGMENTS = 6;      // Maximum number of segments in a key
+        static final int SEGMENT_BITS = 10;     // Bits used by each segment
+        static final int MAX_SEGMENT = (1 << SEGMENT_BITS) - 1;
+
+        // The versions which have a key, as a regular expression Oracle's REGEXP_LIKE reads the same
+        // way (for pending_releases_diff): each segment is a number up to MAX_SEGMENT, 1023, with
+        // any number of leading zeros
+        static final String PATTERN = "^0*([0-9]{1,3}|10[01][0-9]|102[0-3])(\\.0*([0-9]{1,3}|10[01][0-9]|102[0-3])){0,"
+                                      + (MAX_SEGMENTS - 1) + "}$";
+
+        // Sorts versions numerically, then versions with no key as text
+        static final Comparator<String> ORDER = new Comparator<String>() {
+            public int compare(String a, String b) {
+                int c = VersionKeys.compare(key(a), key(b));
+                return c != 0 ? c : a.compareTo(b);
+            }
+        };
+
+        private VersionKeys() {
+        }
+
+        // Parse a version into its key, or NONE if it isn't purely numeric
+        static long key(CharSequence version) {
+            if( version == null ) {
+                return NONE;
+            }
+
+            long key = 0;
+            int segments = 0;
+            int value = -1;
+
+            for( int i = 0, n = version.length(); i <= n; i++ ) {
+                char c = i < n ? version.charAt(i) : '.';
+
+                if( c >= '0' && c <= '9' ) {
+                    value = (value < 0 ? 0 : value * 10) + (c - '0');
+
+                    if( value > MAX_SEGMENT ) {
+                        return NONE;
+                    }
+                }
+                else if( c == '.' && value >= 0 && segments < MAX_SEGMENTS ) {
+                    key |= (long) value << (64 - SEGMENT_BITS * ++segments);
+                    value = -1;
+                }
+                else {
+                    return NONE;
+                }
+            }
+
+            return key | segments;
+        }
+
+        // Compare two keys, with every key sorting before NONE
+        static int compare(long a, long b) {
+            if( a == NONE || b == NONE ) {
+                return a == b ? 0 : (a == NONE ? 1 : -1);
+            }
+
+            return Long.compareUnsigned(a, b);
+        }
+
+        /*
+         * Sort versions[] in the same order as ORDER, where keys[] holds the already parsed
+         * key of each version.  Both arrays are rearranged together, so no version is parsed
+         * again while sorting.
+         */
+        static void sort(String[] versions, long[] keys) {
+            Keyed[] keyed = new Keyed[versions.length];
+
+            for( int i = 0; i < keyed.length; i++ ) {
+                keyed[i] = new Keyed(keys[i], versions[i]);
+            }
+
+            Arrays.sort(keyed);
+
+            for( int i = 0; i < keyed.length; i++ ) {
+                versions[i] = keyed[i].version;
+                keys[i] = keyed[i].key;
+            }
+        }
+
+        // A version paired with its key, for sorting
+        private static final class Keyed implements Comparable<Keyed> {
+            final long key;
+            final String version;
+
+            Keyed(long key, String version) {
+                this.key = key;
+                this.version = version;
+            }
+
+            public int compareTo(Keyed other) {
+                int c = VersionKeys.compare(key, other.key);
+                return c != 0 ? c : version.compareTo(other.version);
+            }
+        }
+    }
+
+    /*
+     * A set of release versions.  Numeric versions are held by key in an open-addressing
+     * table of longs, so adding and finding them doesn't box or compare strings, and two
+     * spellings of the same number (e.g., 9.3.01 and 9.3.1) are the same release.  Versions
+     * with no key fall back to a HashSet of strings.
+     */
+    static final class VersionSet {
+        private long[] keys = new long[64];
+        private int size = 0;
+        private Set<String> text = null;
+
+        VersionSet() {
+            Arrays.fill(keys, VersionKeys.NONE);
+        }
+
+        void add(String version) {
+            add(VersionKeys.key(version), version);
+        }
+
+        void addAll(Collection<String> versions) {
+            for( String version : versions ) {
+                add(version);
+            }
+        }
+
+        void addAll(VersionSet other) {
+            for( long key : other.keys ) {
+                if( key != VersionKeys.NONE ) {
+                    add(key, null);
+                }
+            }
+
+            if( other.text != null ) {
+                for( String version : other.text ) {
+                    add(VersionKeys.NONE, version);
+                }
+            }
+        }
+
+        void add(long key, String version) {
+            if( key == VersionKeys.NONE ) {
+                if( version != null ) {
+                    if( text == null ) {
+                        text = new HashSet<String>();
+                    }
+
+                    text.add(version);
+                }
+
+                return;
+            }
+
+            int slot = slot(keys, key);
+
+            if( keys[slot] == VersionKeys.NONE ) {
+                keys[slot] = key;
+
+                if( ++size * 2 > keys.length ) {
+                    grow();
+                }
+            }
+        }
+
+        boolean contains(long key, String version) {
+            if( key == VersionKeys.NONE ) {
+                return text != null && text.contains(version);
+            }
+
+            return keys[slot(keys, key)] == key;
+        }
+
+        void clear() {
+            if( size > 0 ) {
+                Arrays.fill(keys, VersionKeys.NONE);
+                size = 0;
+            }
+
+            text = null;
+        }
+
+        // Find the slot holding key, or the empty slot where it belongs
+        private static int slot(long[] table, long key) {
+            int mask = table.length - 1;
+            int slot = (int) ((key ^ (key >>> 32)) * 0x9E3779B9L) & mask;
+
+            while( table[slot] != VersionKeys.NONE && table[slot] != key ) {
+                slot = (slot + 1) & mask;
+            }
+
+            return slot;
+        }
+
+        private void grow() {
+            long[] old = keys;
+            keys = new long[old.length * 2];
+            Arrays.fill(keys, VersionKeys.NONE);
+
+            for( long key : old ) {
+                if( key != VersionKeys.NONE ) {
+                    keys[slot(keys, key)] = key;
+                }
+            }
+        }
+    }
+
+    /*
+     * Decodes a GURPOST patch name into the release it installed, e.g. for the product code
+     * "stu", "pcr-000163330_stu8170002" => "8.17.0.2".
+     *
+     * The decoding is the same as it has always been: take the text between the first and
+     * second underscores, remove every occurrence of the product code, then the first
+     * character is the top-level version and each following pair of characters is a
+     * segment with one leading zero removed (an odd character at the end is dropped).
+     * The characters are scanned directly into a buffer which is reused for every row,
+     * and the decoder is itself the CharSequence of the last release it decoded, so a
+     * numeric release can be turned into a version key without creating any strings.
+     */
+    static final class GurpostDecoder implements CharSequence {
+        private char[] buffer = new char[32];
+        private int length = 0;
+
+        /*
+         * Decode a patch name into this decoder's buffer.
+         *
+         * Returns:
+         *   false if the patch name has no text after its first underscore, or nothing is
+         *   left once the product code is removed, otherwise true
+         */
+        boolean decode(String patch, String code) {
+            length = 0;
+
+            if( patch == null ) {
+                return false;
+            }
+
+            // The release is everything between the first and second underscores
+            int start = patch.indexOf('_') + 1;
+
+            if( start == 0 ) {
+                return false;
+            }
+
+            int end = patch.indexOf('_', start);
+
+            if( end < 0 ) {
+                end = patch.length();
+            }
+
+            // Each pair of characters can become three (".17"), so make sure there is room
+            int needed = (end - start) * 3 / 2 + 1;
+
+            if( buffer.length < needed ) {
+                buffer = new char[needed];
+            }
+
+            int t = 0;       // Number of characters seen with the product code removed
+            char held = 0;   // The first character of the current pair
+
+            for( int i = start; i < end; ) {
+                // Skip each occurrence of the product code
+                if( patch.startsWith(code, i) && code.length() > 0 ) {
+                    i += code.length();
+                    continue;
+                }
+
+                char c = patch.charAt(i++);
+
+                if( t == 0 ) {
+                    // The top-level version number (8 or 9)
+                    buffer[length++] = c;
+                }
+                else if( t % 2 == 1 ) {
+                    held = c;
+                }
+                else {
+                    // Append the pair, stripping a leading zero (e.g., "01" => "1")
+                    buffer[length++] = '.';
+
+                    if( held != '0' ) {
+                        buffer[length++] = held;
+                    }
+
+                    buffer[length++] = c;
+                }
+
+                t++;
+            }
+
+            return t > 0;
+        }
+
+        public int length() {
+            return length;
+        }
+
+        public char charAt(int index) {
+            return buffer[index];
+        }
+
+        public CharSequence subSequence(int start, int end) {
+            return new String(buffer, start, end - start);
+        }
+
+        public String toString() {
+            return new String(buffer, 0, length);
+        }
+    }
+
+    /*
+     * Finds the GURPOST product codes a patch name belongs to, so the whole of GURPOST can be
+     * read in one pass instead of once per product.
+     *
+     * A patch belongs to a code under the same rule as gurpost_patch_by_product's
+     * LIKE 'pcr-%_<code>%': it starts with "pcr-", and the code appears anywhere from the sixth
+     * character on.  The codes are kept in a trie of ASCII characters, so every code found at
+     * a position is matched in one walk from it.  One patch can belong to several codes (if
+     * one code appears inside another), and one code can belong to several products (e.g.,
+     * "fss"), so the caller decodes the patch once for each code found and shares the result
+     * between the products with that code.
+     */
+    static final class GurpostClassifier {
+        static final String PREFIX = "pcr-";
+
+        // The first position a code can start at, as the LIKE needs a character between "pcr-" and the code
+        private static final int FIRST = PREFIX.length() + 1;
+
+        private final List<int[]> children = new ArrayList<int[]>();  // [node] => child node for each ASCII character, or 0
+        private final List<String> ends = new ArrayList<String>();     // [node] => the code which ends at the node, or null
+        private final String[] found;     // The codes found in the last patch classified
+        private int count = 0;
+
+        GurpostClassifier(Collection<String> codes) {
+            children.add(new int[128]);
+            ends.add(null);
+
+            for( String code : codes ) {
+                add(code);
+            }
+
+            found = new String[ends.size()];
+        }
+
+        /*
+         * Find the codes a patch name belongs to.
+         *
+         * Returns:
+         *   The number of codes found, which are then given by code(0) onwards
+         */
+        int classify(String patch) {
+            count = 0;
+
+            if( patch == null || ! patch.startsWith(PREFIX) ) {
+                return 0;
+            }
+
+            for( int i = FIRST, n = patch.length(); i < n; i++ ) {
+                int node = 0;
+
+                for( int j = i; j < n; j++ ) {
+                    char c = patch.charAt(j);
+                    node = c < 128 ? children.get(node)[c] : 0;
+
+                    if( node == 0 ) {
+                        break;
+                    }
+
+                    if( ends.get(node) != null && ! isFound(ends.get(node)) ) {
+                        found[count++] = ends.get(node);
+                    }
+                }
+            }
+
+            return count;
+        }
+
+        // The nth code found by the last call to classify()
+        String code(int n) {
+            return found[n];
+        }
+
+        // Add a code to the trie.  Codes which are empty or not ASCII can never be found, so they are left out.
+        private void add(String code) {
+            int node = 0;
+
+            for( int i = 0; i < code.length(); i++ ) {
+                if( code.charAt(i) >= 128 ) {
+                    return;
+                }
+            }
+
+            for( int i = 0; i < code.length(); i++ ) {
+                char c = code.charAt(i);
+
+                if( children.get(node)[c] == 0 ) {
+                    children.get(node)[c] = children.size();
+                    children.add(new int[128]);
+                    ends.add(null);
+                }
+
+                node = children.get(node)[c];
+            }
+
+            if( node != 0 ) {
+                ends.set(node, code);
+            }
+        }
+
+        private boolean isFound(String code) {
+            for( int m = 0; m < count; m++ ) {
+                if( found[m] == code ) {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+    }
+
+    /*
+     * The pending releases for products[first..last) in each Banner instance.
+     *
+     * Each product's ESM releases are sorted once and shared by every instance compared with
+     * the same ESM server, so a release's position in its product's list serves as its id.
+     * Each instance records which of those releases are installed as a bitset over the ids,
+     * with every product starting on a word boundary, and its pending releases are worked
+     * out a word at a time from the bitset of every ESM release (see pendingWord()).  That
+     * keeps the matrix at one small bitset per instance, however many instances are
+     * configured, and two instances can be compared a word at a time (see pendingOnlyIn()).
+     *
+     * The scan workers fill in the matrix one product at a time, and each product can be read
+     * as soon as every instance has finished it (see awaitProduct()), so the report can be
+     * written while the scans are still running.
+     *
+     * An instance which can't be scanned (it failed to connect, a query failed, or it missed
+     * the run deadline) is marked with an error instead of stopping the report.  The products
+     * it finished before then keep their results, and the rest are shown with the error.
+     */
+    static final class PendingMatrix {
+        // The errors an instance can be marked with
+        static final String NOT_CONNECTED = "not connected";
+        static final String TIMED_OUT     = "timed out";
+        static final String FAILED        = "failed";
+
+        final String[][] products;    // The products[][] the matrix was built for, kept as they were
+        final int first;              // First product index in products[][]
+        final int last;               // One past the last product index in products[][]
+        final String[] instances;     // Banner instance names, in the configured order
+        final int[] esm;              // [instance] => the ESM server the instance is compared with
+        final String[][][] releases;  // [ESM server][product - first] => sorted ESM releases for the product
+        final long[][][] keys;        // [ESM server][product - first] => version keys of the releases above
+        final int[][] words;          // [ESM server][product - first] => first word of the product in the bitsets, and the total at [last - first]
+        final long[][] all;           // [ESM server] => bitset of every ESM release: release r of a product is bit r from its first word
+        final long[][] installed;     // [instance] => bitset of the instance's installed ESM releases, laid out as all[]
+        private final int[] finished; // [instance] => number of products finished by the instance's scan
+        private final String[] errors;         // [instance] => the error the instance is marked with, or null
+        private final Throwable[] causes;      // [instance] => what caused the error, if known
+
+        // A matrix for instances which are all compared with the same ESM server
+        PendingMatrix(int first, int last, String[] instances, Map<String,List<String>> esmReleases) {
+            this(first, last, instances, Collections.singletonList(esmReleases), new int[instances.length]);
+        }
+
+        PendingMatrix(int first, int last, String[] instances, List<Map<String,List<String>>> esmReleases, int[] esm) {
+            // Product discovery may replace products[][] while the matrix is still being read
+            this.products = PendingBannerReleases.products;
+            this.first = first;
+            this.last = last;
+            this.instances = instances;
+            this.esm = esm;
+            this.releases = new String[esmReleases.size()][last - first][];
+            this.keys = new long[esmReleases.size()][last - first][];
+            this.words = new int[esmReleases.size()][last - first + 1];
+            this.all = new long[esmReleases.size()][];
+            this.installed = new long[instances.length][];
+            this.finished = new int[instances.length];
+            this.errors = new String[instances.length];
+            this.causes = new Throwable[instances.length];
+
+            for( int e = 0; e < esmReleases.size(); e++ ) {
+                for( int i = first; i < last; i++ ) {
+                    List<String> esmProduct = esmReleases.get(e).get(products[i][RELEASE]);
+
+                    // De-duplicate the ESM releases for this product, then sort them by their keys
+                    Set<String> distinct = new LinkedHashSet<String>();
+
+                    if( products[i][RELEASE].length() > 0 && esmProduct != null ) {
+                        distinct.addAll(esmProduct);
+                    }
+
+                    releases[e][i - first] = distinct.toArray(new String[distinct.size()]);
+                    keys[e][i - first] = new long[releases[e][i - first].length];
+
+                    for( int r = 0; r < keys[e][i - first].length; r++ ) {
+                        keys[e][i - first][r] = VersionKeys.key(releases[e][i - first][r]);
+                    }
+
+                    VersionKeys.sort(releases[e][i - first], keys[e][i - first]);
+                    words[e][i - first + 1] = words[e][i - first] + (releases[e][i - first].length + 63) / 64;
+                }
+
+                all[e] = new long[words[e][last - first]];
+
+                for( int i = first; i < last; i++ ) {
+                    for( int r = 0; r < releases[e][i - first].length; r++ ) {
+                        all[e][words[e][i - first] + (r >> 6)] |= 1L << r;
+                    }
+                }
+            }
+
+            for( int x = 0; x < instances.length; x++ ) {
+                installed[x] = new long[words[esm[x]][last - first]];
+            }
+        }
+
+        // The sorted ESM releases for products[product], for an instance
+        String[] releases(int instance, int product) {
+            return releases[esm[instance]][product - first];
+        }
+
+        // The version keys of the sorted ESM releases for products[product], for an instance
+        long[] keys(int instance, int product) {
+            return keys[esm[instance]][product - first];
+        }
+
+        // The total number of ESM releases across all products in the matrix, for an instance
+        int releaseCount(int instance) {
+            int count = 0;
+
+            for( String[] r : releases[esm[instance]] ) {
+                count += r.length;
+            }
+
+            return count;
+        }
+
+        /*
+         * Record which of an instance's ESM releases for products[product] are in an installed
+         * set.  Called by the instance's scan worker, before finishProduct().
+         */
+        void install(int instance, int product, VersionSet versions) {
+            markInstalled(versions, releases(instance, product), keys(instance, product), installed[instance], words[esm[instance]][product - first]);
+        }
+
+        /*
+         * Record every one of an instance's ESM releases for products[product] as installed,
+         * except the given positions.  Called by the instance's scan worker, before
+         * finishProduct(), when the pending releases are all it has.
+         */
+        void installAllBut(int instance, int product, BitSet pending) {
+            int word = words[esm[instance]][product - first];
+
+            for( int r = 0; r < releases(instance, product).length; r++ ) {
+                if( ! pending.get(r) ) {
+                    installed[instance][word + (r >> 6)] |= 1L << r;
+                }
+            }
+        }
+
+        // Publish an instance's pending releases for products[first..product]
+        synchronized void finishProduct(int instance, int product) {
+            // A scan which is still running after its instance was given up on is ignored
+            if( errors[instance] == null ) {
+                finished[instance] = product - first + 1;
+                notifyAll();
+            }
+        }
+
+        /*
+         * Give up on an instance, so nothing waits for the products it hasn't finished.  Only
+         * the first error is kept, and an instance which has finished every product is left
+         * alone.
+         */
+        synchronized void fail(int instance, String error, Throwable cause) {
+            if( errors[instance] == null && finished[instance] < last - first ) {
+                errors[instance] = error;
+                causes[instance] = cause;
+                notifyAll();
+            }
+        }
+
+        // Whether an instance has finished every product or been given up on
+        synchronized boolean isDone(int instance) {
+            return errors[instance] != null || finished[instance] == last - first;
+        }
+
+        /*
+         * Wait until every instance has finished products[product] or been given up on.
+         */
+        synchronized void awaitProduct(int product) throws InterruptedException {
+            int x = 0;
+
+            while( x < finished.length ) {
+                if( errors[x] != null || finished[x] > product - first ) {
+                    x++;
+                }
+                else {
+                    wait();
+                }
+            }
+        }
+
+        /*
+         * The error shown for products[product] in an instance.
+         *
+         * Returns:
+         *   The error, or null if the instance finished the product
+         */
+        synchronized String error(int instance, int product) {
+            return finished[instance] > product - first ? null : errors[instance];
+        }
+
+        // The error an instance is marked with, or null
+        synchronized String error(int instance) {
+            return errors[instance];
+        }
+
+        // What caused an instance's error, or null if it isn't known
+        synchronized Throwable cause(int instance) {
+            return causes[instance];
+        }
+
+        // The number of releases pending for products[product] in an instance
+        int pendingCount(int instance, int product) {
+            if( error(instance, product) != null ) {
+                return 0;
+            }
+
+            int count = 0;
+
+            for( int w = words[esm[instance]][product - first]; w < words[esm[instance]][product - first + 1]; w++ ) {
+                count += Long.bitCount(pendingWord(instance, w));
+            }
+
+            return count;
+        }
+
+        // The nth pending release for products[product] in an instance
+        String pending(int instance, int product, int n) {
+            int start = words[esm[instance]][product - first];
+            int skip = n;
+
+            for( int w = start; w < words[esm[instance]][product - first + 1]; w++ ) {
+                long bits = pendingWord(instance, w);
+                int count = Long.bitCount(bits);
+
+                if( skip < count ) {
+                    // Drop the lowest bits which are skipped, and the next one is the release
+                    for( ; skip > 0; skip-- ) {
+                        bits &= bits - 1;
+                    }
+
+                    return releases(instance, product)[((w - start) << 6) + Long.numberOfTrailingZeros(bits)];
+                }
+
+                skip -= count;
+            }
+
+            throw new IndexOutOfBoundsException("Pending release " + n + " of " + products[product][PRODUCT] + " in " + instances[instance]);
+        }
+
+        /*
+         * The releases of products[product] which are pending in one instance but already
+         * installed in another (e.g., pending on TEST but not on PROD), worked out a word at
+         * a time.  Both instances must be compared with the same ESM server.
+         *
+         * Returns:
+         *   The positions of the releases in releases(instance, product), or null if either
+         *   instance didn't finish the product
+         */
+        BitSet pendingOnlyIn(int instance, int other, int product) {
+            if( esm[instance] != esm[other] ) {
+                throw new IllegalArgumentException(instances[instance] + " and " + instances[other] + " are compared with different ESM servers");
+            }
+
+            return pendingOnlyIn(instance, this, other, product);
+        }
+
+        /*
+         * The same, with the other instance in another matrix which has the same ESM releases
+         * for the product, e.g. an earlier scan of the same instance.  Then the releases
+         * pending in the earlier scan but not this one are those which have been installed
+         * since, and the other way around, those which are pending again.
+         */
+        BitSet pendingOnlyIn(int instance, PendingMatrix otherMatrix, int other, int product) {
+            if( ! Arrays.equals(releases(instance, product), otherMatrix.releases(other, product)) ) {
+                throw new IllegalArgumentException("The ESM releases of " + products[product][PRODUCT] + " differ between the matrices");
+            }
+
+            if( error(instance, product) != null || otherMatrix.error(other, product) != null ) {
+                return null;
+            }
+
+            int start = words[esm[instance]][product - first];
+            int otherStart = otherMatrix.words[otherMatrix.esm[other]][product - otherMatrix.first];
+            long[] only = new long[words[esm[instance]][product - first + 1] - start];
+
+            for( int w = 0; w < only.length; w++ ) {
+                only[w] = pendingWord(instance, start + w) & otherMatrix.installed[other][otherStart + w];
+            }
+
+            return BitSet.valueOf(only);
+        }
+
+        // Word w of an instance's pending bitset: its ESM releases which aren't installed
+        private long pendingWord(int instance, int w) {
+            return all[esm[instance]][w] & ~installed[instance][w];
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Properties config = new Properties();
+
+        // Read the properties file
+        try {
+            BufferedReader input = new BufferedReader(new FileReader(CONFIG_FILE));
+            config.load(input);
+            input.close();
+        }
+        catch( FileNotFoundException e ) {
+            System.err.println( "ERROR: File " + CONFIG_FILE + " does not exist." );
+            System.exit(1);
+        }
+        catch( IOException ioe ) {
+            System.err.println( "ERROR: Failed to read file " + CONFIG_FILE + "." );
+            System.exit(1);
+        }
+
+        // The report is written to stdout, through one buffered writer
+        String outputFormat = config.getProperty("output_format","table").trim();
+        Writer reportOut = new BufferedWriter(new OutputStreamWriter(System.out), 1 << 16);
+
+        if( ! ReportFormat.NAMES.contains(outputFormat) ) {
+            System.out.println( "ERROR: Unknown output_format '" + outputFormat + "'. Please check the config." );
+            System.exit(1);
+        }
+
+        // Keep stdout for a CSV or JSON report alone, so it can be piped into other tools
+        if( ! outputFormat.equals("table") ) {
+            System.setOut(System.err);
+        }
+
+        System.out.println();
+        System.out.println(PROGRAM + " ver. " + VERSION);
+        System.out.println("By " + AUTHOR);
+
+        // ESM H2 database connection info: the h2.db settings, and in fleet mode one entry for
+        // each esm.N block, with any blocks for the same file merged so it is only read once
+        List<String[]> esmInfo = readEsmInfo(config);
+
+        if( esmInfo.isEmpty() ) {
+            System.out.println( "ERROR: No ESM databases are configured. Please check the config." );
+            System.exit(1);
+        }
+
+        // Banner Oracle database connection info, one entry for each orcl.dbN block
+        List<String[]> oracleInfo = readOracleInfo(config);
+
+        if( oracleInfo.isEmpty() ) {
+            System.out.println( "ERROR: No Oracle databases are configured. Please check the config." );
+            System.exit(1);
+        }
+
+        // The ESM server each Banner instance is compared with
+        int[] esmOf = assignEsm(oracleInfo, esmInfo);
+
+        boolean gaReleasesOnly = Boolean.parseBoolean(config.getProperty("ga_releases_only","false").trim());
+        final boolean bulkFetch = Boolean.parseBoolean(config.getProperty("bulk_fetch","true").trim());
+        boolean serverDiff      = Boolean.parseBoolean(config.getProperty("server_side_diff","false").trim());
+        int maxConcurrentScans  = Integer.parseInt(config.getProperty("max_concurrent_scans","8").trim());
+        int pageWidth           = Integer.parseInt(config.getProperty("page_width","132").trim());
+        int fetchSize           = Integer.parseInt(config.getProperty("fetch_size","500").trim());
+        boolean incremental     = Boolean.parseBoolean(config.getProperty("incremental","false").trim());
+        File stateDir           = new File(config.getProperty("incremental_state_dir","state").trim());
+        File formatCache        = new File(config.getProperty("jdbc_format_cache","jdbc_formats.properties").trim());
+        boolean collectMetrics  = Boolean.parseBoolean(config.getProperty("metrics","false").trim());
+        File metricsFile        = new File(config.getProperty("metrics_file","metrics.jsonl").trim());
+        boolean discoverProducts = Boolean.parseBoolean(config.getProperty("product_discovery","false").trim());
+        String catalogPath      = config.getProperty("product_catalog_file","products.catalog").trim();
+        File catalogFile        = catalogPath.length() > 0 ? new File(catalogPath) : null;
+        long catalogMaxAge      = 3600000L * Long.parseLong(config.getProperty("product_catalog_max_age_hours","24").trim());
+        int queryTimeout        = Integer.parseInt(config.getProperty("query_timeout_seconds","300").trim());
+        long runTimeout         = 1000L * Long.parseLong(config.getProperty("run_timeout_seconds","0").trim());
+        boolean keepHistory     = Boolean.parseBoolean(config.getProperty("history","false").trim());
+        File historyFile        = new File(config.getProperty("history_file","history.pbr").trim());
+
+        // Look up the history of an instance's pending releases, without connecting to anything
+        if( args.length > 0 && args[0].equals("--history") ) {
+            System.out.println();
+            int status = HistoryArchive.query(historyFile, Arrays.asList(args).subList(1, args.length), System.out);
+            System.out.println();
+            System.exit(status);
+        }
+
+        // The SQL for every query the program runs
+        final HashMap<String,String> queries = queries(gaReleasesOnly);
+
+        // In daemon mode, skip the menu and serve the pending releases for every product over HTTP
+        if( args.length > 0 && args[0].equals("--daemon") ) {
+            PendingDaemon daemon = new PendingDaemon(config, esmInfo, oracleInfo, esmOf, queries);
+            daemon.start();
+            return;
+        }
+
+        // In watch mode, skip the menu and report each release as it is installed
+        if( args.length > 0 && args[0].equals("--watch") ) {
+            PendingWatcher watcher = new PendingWatcher(config, esmInfo, oracleInfo, esmOf, queries);
+            watcher.run();
+            return;
+        }
+
+        // Timing and query metrics for this run, if they are wanted
+        RunMetrics metrics = collectMetrics ? new RunMetrics() : null;
+        long runStarted;
+        long phaseStarted;
+
+        // The instance names, in the configured order (prefixed with their ESM server in fleet mode)
+        String[] instanceNames = instanceLabels(oracleInfo, esmInfo, esmOf);
+
+        Connection[] oracleConnections = new Connection[oracleInfo.size()];
+        Connection[] h2Connections = null;
+
+        // Start connecting to the H2 (ESM) databases and each Oracle (Banner) database at the
+        // same time, while the menu is shown
+        ConnectionManager connectionManager = new ConnectionManager(formatCache, metrics);
+        List<Future<Connection>> h2Futures = new ArrayList<Future<Connection>>();
+        List<Future<Connection>> oracleFutures = new ArrayList<Future<Connection>>();
+
+        for( String[] esm : esmInfo ) {
+            if( esm[ESM_READER].equals("mvstore") ) {
+                // Read directly by loadEsmReleases(), which keeps the passwords in case it has to connect after all
+                h2Futures.add(null);
+            }
+            else {
+                h2Futures.add(connectionManager.open(esm[ESM_NAME], esm[ESM_JDBC], esm[ESM_USER], esm[ESM_PASS]));
+                esm[ESM_PASS] = new String();
+            }
+        }
+
+        for( String[] info : oracleInfo ) {
+            oracleFutures.add(connectionManager.openOracle(info));
+        }
+
+        // In discovery mode, the menu lists the products found in the databases.  They are
+        // discovered again once the saved catalog is too old.
+        if( discoverProducts ) {
+            String[][] catalog = ProductCatalog.load(catalogFile, catalogMaxAge);
+
+            if( catalog == null ) {
+                h2Connections = awaitConnections(connectionManager, h2Futures, esmInfo, oracleFutures, oracleInfo, oracleConnections, 0);
+
+                // Only discover the products with every instance connected, so none of them are missed
+                if( Arrays.asList(oracleConnections).contains(null) ) {
+                    System.out.println( "WARNING: Not every Banner instance is connected, so the products were not discovered." );
+                    catalog = ProductCatalog.load(catalogFile, Long.MAX_VALUE);
+                }
+                else {
+                    phaseStarted = System.nanoTime();
+                    connectDirectReaders(h2Connections, esmInfo);
+                    catalog = ProductCatalog.discover(h2Connections, oracleConnections, instanceNames, queries, queryTimeout, catalogFile, metrics);
+
+                    if( metrics != null ) {
+                        metrics.phase("discovery", null, phaseStarted);
+                    }
+                }
+            }
+
+            if( catalog != null ) {
+                products = catalog;
+            }
+        }
+
+        // Display the menu and get the user's selection
+        int selection = getUserSelection();
+
+        // If the returned value is -2 then exit
+        if( selection == -2 ) {
+            System.out.println("Quitting.");
+            System.out.println();
+            System.exit(0);
+        }
+
+        System.out.println();
+        runStarted = System.nanoTime();
+
+        if( h2Connections == null ) {
+            h2Connections = awaitConnections(connectionManager, h2Futures, esmInfo, oracleFutures, oracleInfo, oracleConnections, runTimeout);
+        }
+
+        // Scan each Banner instance on its own worker, up to max_concurrent_scans at a time.
+        // The ESM databases are loaded by the same workers first.
+        ExecutorService scanExecutor = Executors.newFixedThreadPool(Math.max(1, Math.min(maxConcurrentScans, Math.max(oracleConnections.length, h2Connections.length))));
+
+        // Load the ESM releases for every product once from each ESM server, so each Banner instance can reuse them
+        List<Map<String,List<String>>> esmReleases = loadEsmReleases(scanExecutor, h2Connections, esmInfo, queries.get("esm_releases"), gaReleasesOnly, metrics);
+
+        // The H2 databases are no longer needed once the releases have been loaded
+        for( int e = 0; e < h2Connections.length; e++ ) {
+            if( h2Connections[e] != null ) {
+                h2Connections[e].close();
+            }
+
+            esmInfo.get(e)[ESM_PASS] = new String();
+        }
+
+        // Start and end indexes for reading the products[][] array
+        int start;
+        int end;
+
+        // Width of the product name being displayed
+        int width = 0;
+
+        // If selection is -1 then the user chose to see all products
+        if( selection == -1 ) {
+            start = 0;
+            end = products.length;
+
+            // Use the longest product name as the width
+            width = getLongestProductName();
+        }
+        // Otherwise set the indexes so we only get the selected product
+        else {
+            start = selection;
+            end = start+1;
+
+            // Use the length of this product's name as the width
+            width = products[start][PRODUCT].length();
+        }
+
+        // Holds the pending releases for every instance, with each product's ESM releases shared between them
+        final PendingMatrix matrix = new PendingMatrix(start, end, instanceNames, esmReleases, esmOf);
+
+        PreparedQueries[] oracleQueries = new PreparedQueries[oracleConnections.length];
+
+        for( int x = 0; x < oracleConnections.length; x++ ) {
+            if( oracleConnections[x] != null ) {
+                oracleQueries[x] = new PreparedQueries(oracleConnections[x], queries, fetchSize, queryTimeout, metrics, instanceNames[x]);
+            }
+        }
+
+        List<Future<?>> scans = startScans(scanExecutor, oracleQueries, oracleInfo, matrix, bulkFetch, serverDiff, incremental ? stateDir : null, metrics);
+        scanExecutor.shutdown();
+
+        // Give up on the instances which are still being scanned at the run deadline, and report the rest
+        Timer deadline = cancelScansAt(oracleQueries, matrix, runTimeout > 0 ? Math.max(1, runTimeout - (System.nanoTime() - runStarted) / 1000000) : 0);
+
+        /*
+         * Display the results, writing each product as soon as every instance has finished it
+         */
+
+        System.out.println();
+        phaseStarted = System.nanoTime();
+
+        ReportFormat report = ReportFormat.create(outputFormat, reportOut, matrix, width, pageWidth);
+        report.begin();
+
+        for( int i = start; i < end; i++ ) {
+            // An instance which has been given up on is shown with its error
+            matrix.awaitProduct(i);
+            report.product(i);
+        }
+
+        report.end();
+        awaitScans(scans, matrix);
+
+        if( deadline != null ) {
+            deadline.cancel();
+        }
+
+        if( metrics != null ) {
+            metrics.phase("report", null, phaseStarted);
+        }
+
+        // A connection whose query may still be stuck is left to be dropped when the program exits
+        boolean partial = false;
+
+        for( int x = 0; x < oracleConnections.length; x++ ) {
+            if( matrix.error(x) != null ) {
+                Throwable cause = matrix.cause(x);
+                System.out.println( "WARNING: " + instanceNames[x] + " " + matrix.error(x) + (cause != null ? ": " + cause.getMessage() : "")
+                                    + ". Its results are missing from the report." );
+                partial = true;
+            }
+
+            if( oracleConnections[x] != null && ! PendingMatrix.TIMED_OUT.equals(matrix.error(x)) ) {
+                oracleQueries[x].close();
+                oracleConnections[x].close();
+            }
+        }
+
+        // Keep this run's pending releases for --history
+        if( keepHistory ) {
+            try {
+                HistoryArchive.record(historyFile, matrix, System.currentTimeMillis());
+            }
+            catch( IOException ioe ) {
+                System.out.println( "WARNING: Failed to write the history to " + historyFile + ": " + ioe.getMessage() );
+            }
+        }
+
+        // Show where the time went, and keep the metrics for comparing runs
+        if( metrics != null ) {
+            metrics.phase("total", null, runStarted);
+
+            System.out.println();
+            metrics.printSummary(System.out);
+
+            try {
+                metrics.write(metricsFile);
+            }
+            catch( IOException ioe ) {
+                System.out.println( "WARNING: Failed to write the metrics to " + metricsFile + "." );
+            }
+        }
+
+        // Exit, with status 2 if any instance is missing from the report
+        System.out.println();
+        System.exit(partial ? 2 : 0);
+    }
+
+    /*
+     * Create a HashMap of the required queries.  The Banner queries are run as prepared
+     * statements (see PreparedQueries): each ? is a bind variable, and a %s is either an
+     * IN list of bind variables or the name of a *VERS table.
+     *
+     * Returns:
+     *   A map of query name => SQL
+     */
+    static HashMap<String,String> queries(boolean gaReleasesOnly) {
+        HashMap<String,String> queries = new HashMap<>();
+
+        if( gaReleasesOnly ) {
+            queries.put(
+                "esm_releases",
+                "SELECT PRODUCT_ID, RELEASE_VERSION FROM RELEASE WHERE STATUS = 'GA'"
+            );
+        }
+        else {
+            queries.put(
+                "esm_releases",
+                "SELECT PRODUCT_ID, RELEASE_VERSION FROM RELEASE WHERE STATUS != 'OBSOLETE'"
+            );
+        }
+
+        queries.put(
+            "gurwapp_release_by_product",
+            "SELECT GURWAPP_RELEASE FROM GURWAPP WHERE GURWAPP_APPLICATION_NAME = ?"
+        );
+
+        queries.put(
+            "gurwadb_release_by_product",
+            "SELECT GURWADB_RELEASE FROM GURWADB WHERE GURWADB_APPLICATION_NAME = ?"
+        );
+
+        queries.put(
+            "gurpost_patch_by_product",
+            "SELECT GURPOST_PATCH FROM GURPOST WHERE GURPOST_PATCH LIKE ?"
+        );
+
+        queries.put(
+            "gurpost_patch_bulk",
+            "SELECT GURPOST_PATCH FROM GURPOST WHERE GURPOST_PATCH LIKE 'pcr-%'"
+        );
+
+        queries.put(
+            "vers_table_release",
+            "SELECT %s_RELEASE FROM %s"
+        );
+
+        // Bulk versions of the queries above, used to read each table in one round trip
+        queries.put(
+            "gurwapp_release_bulk",
+            "SELECT GURWAPP_APPLICATION_NAME, GURWAPP_RELEASE FROM GURWAPP WHERE GURWAPP_APPLICATION_NAME IN (%s)"
+        );
+
+        queries.put(
+            "gurwadb_release_bulk",
+            "SELECT GURWADB_APPLICATION_NAME, GURWADB_RELEASE FROM GURWADB WHERE GURWADB_APPLICATION_NAME IN (%s)"
+        );
+
+        queries.put(
+            "vers_table_release_bulk",
+            "SELECT '%s', %s_RELEASE FROM %s"
+        );
+
+        //
+        // The pending releases of every product, worked out by Oracle for server_side_diff
+        // mode (see PreparedQueries.executeDiff()).  Each ESM release is bound as one string,
+        // "<product> <position> <release>", and only the product and position of the pending
+        // ones are returned.  GURPOST patch names are decoded the same way as GurpostDecoder,
+        // and releases are compared as VersionSet compares them: two which both have a version
+        // key (see VersionKeys.PATTERN) with the leading zeros of each number removed, so 9.3.01
+        // is the same release as 9.3.1, and any others as text.
+        //
+        queries.put(
+            "pending_releases_diff",
+            "WITH ESM AS (" +
+                "SELECT TO_NUMBER(SUBSTR(COLUMN_VALUE, 1, INSTR(COLUMN_VALUE, ' ') - 1)) AS PRODUCT, " +
+                       "TO_NUMBER(SUBSTR(COLUMN_VALUE, INSTR(COLUMN_VALUE, ' ') + 1, INSTR(COLUMN_VALUE, ' ', 1, 2) - INSTR(COLUMN_VALUE, ' ') - 1)) AS POSITION, " +
+                       "SUBSTR(COLUMN_VALUE, INSTR(COLUMN_VALUE, ' ', 1, 2) + 1) AS RELEASE " +
+                "FROM TABLE(?)" +
+            "), NAMES AS (%1$s), VERS (TABLE_NAME, RELEASE) AS (%2$s), " +
+            "PATCHES AS (" +
+                "SELECT N.PRODUCT, REPLACE(SUBSTR(G.GURPOST_PATCH, INSTR(G.GURPOST_PATCH, '_') + 1, " +
+                       "DECODE(INSTR(G.GURPOST_PATCH, '_', 1, 2), 0, 4000, INSTR(G.GURPOST_PATCH, '_', 1, 2) - INSTR(G.GURPOST_PATCH, '_') - 1)), N.GURPOST) AS CODE " +
+                "FROM GURPOST G JOIN NAMES N ON G.GURPOST_PATCH LIKE 'pcr-%%_' || N.GURPOST || '%%'" +
+            "), INSTALLED AS (" +
+                "SELECT N.PRODUCT, D.GURWADB_RELEASE AS RELEASE FROM GURWADB D JOIN NAMES N ON D.GURWADB_APPLICATION_NAME = N.GURWADB " +
+                "UNION ALL SELECT N.PRODUCT, A.GURWAPP_RELEASE FROM GURWAPP A JOIN NAMES N ON A.GURWAPP_APPLICATION_NAME = N.GURWAPP " +
+                "UNION ALL SELECT PRODUCT, SUBSTR(CODE, 1, 1) || REGEXP_REPLACE(REGEXP_REPLACE(SUBSTR(CODE, 2, 2 * TRUNC((LENGTH(CODE) - 1) / 2)), '(.)(.)', '.\\1\\2'), '\\.0(.)', '.\\1') FROM PATCHES " +
+                "UNION ALL SELECT N.PRODUCT, V.RELEASE FROM VERS V JOIN NAMES N ON V.TABLE_NAME = N.VERSTBL" +
+            ") " +
+            "SELECT E.PRODUCT, E.POSITION FROM ESM E WHERE NOT EXISTS (" +
+                "SELECT 1 FROM INSTALLED I WHERE I.PRODUCT = E.PRODUCT AND (I.RELEASE = E.RELEASE " +
+                "OR (REGEXP_LIKE(I.RELEASE, '" + VersionKeys.PATTERN + "') AND REGEXP_LIKE(E.RELEASE, '" + VersionKeys.PATTERN + "') " +
+                "AND REGEXP_REPLACE('.' || I.RELEASE, '\\.0+([0-9])', '.\\1') = REGEXP_REPLACE('.' || E.RELEASE, '\\.0+([0-9])', '.\\1'))))"
+        );
+
+        // Change markers (row count and latest value) for incremental mode
+        queries.put(
+            "gurpost_marker",
+            "SELECT COUNT(*), MAX(GURPOST_ACTIVITY_DATE) FROM GURPOST"
+        );
+
+        queries.put(
+            "gurwadb_marker",
+            "SELECT GURWADB_APPLICATION_NAME, COUNT(*), MAX(GURWADB_ACTIVITY_DATE) FROM GURWADB WHERE GURWADB_APPLICATION_NAME IN (%s) GROUP BY GURWADB_APPLICATION_NAME"
+        );
+
+        queries.put(
+            "gurwapp_marker",
+            "SELECT GURWAPP_APPLICATION_NAME, COUNT(*), MAX(GURWAPP_ACTIVITY_DATE) FROM GURWAPP WHERE GURWAPP_APPLICATION_NAME IN (%s) GROUP BY GURWAPP_APPLICATION_NAME"
+        );
+
+        queries.put(
+            "vers_table_marker",
+            "SELECT '%s', COUNT(*), MAX(%s_RELEASE) FROM %s"
+        );
+
+        // Discovery queries, used to build the product catalog in product_discovery mode
+        queries.put(
+            "esm_products",
+            "SELECT DISTINCT PRODUCT_ID FROM RELEASE"
+        );
+
+        queries.put(
+            "application_names",
+            "SELECT GURWAPP_APPLICATION_NAME FROM GURWAPP UNION SELECT GURWADB_APPLICATION_NAME FROM GURWADB"
+        );
+
+        return queries;
+    }
+
+    /*
+     * Wait for the connections started by main(), exiting with an error if an ESM database
+     * fails to connect.  The Oracle connections are stored in oracleConnections, and a Banner
+     * instance which fails to connect, or doesn't connect within timeoutMillis (unless it is
+     * 0), is reported and left null so the rest can still be scanned.
+     *
+     * Returns:
+     *   [ESM server] => the H2 (ESM) connection, or null if the server is read directly
+     */
+    private static Connection[] awaitConnections(ConnectionManager connectionManager, List<Future<Connection>> h2Futures, List<String[]> esmInfo,
+                                                 List<Future<Connection>> oracleFutures, List<String[]> oracleInfo,
+                                                 Connection[] oracleConnections, long timeoutMillis) throws SQLException {
+        long started = System.currentTimeMillis();
+        Connection[] h2Connections = new Connection[esmInfo.size()];
+
+        // Establish a connection to each H2 (ESM) database
+        for( int e = 0; e < esmInfo.size(); e++ ) {
+            String[] esm = esmInfo.get(e);
+
+            if( h2Futures.get(e) == null ) {
+                continue;
+            }
+
+            try {
+                h2Connections[e] = ConnectionManager.get(h2Futures.get(e));
+                System.out.println("* Connected to " + esm[ESM_FILE] + " as " + esm[ESM_USER]);
+            }
+            catch( SQLTimeoutException ste ) {
+                System.out.println( "ERROR: Timed out while connecting to " + esm[ESM_FILE] + "." );
+                System.exit(1);
+            }
+            catch( SQLException se ) {
+                System.out.println( "ERROR: Failed to connect to " + esm[ESM_FILE] + ". Please check the connection details and try again." );
+                System.exit(1);
+            }
+        }
+
+        // Establish a connection to each Oracle (Banner) database
+        for( int x = 0; x < oracleInfo.size(); x++ ) {
+            String[] info = oracleInfo.get(x);
+
+            try {
+                long remaining = timeoutMillis > 0 ? Math.max(1, timeoutMillis - (System.currentTimeMillis() - started)) : 0;
+                oracleConnections[x] = ConnectionManager.get(oracleFutures.get(x), remaining);
+                System.out.println("* Connected to " + info[NAME] + " as " + info[USER]);
+                info[PASS] = new String();
+            }
+            catch( SQLTimeoutException ste ) {
+                System.out.println( "WARNING: Timed out while connecting to " + info[NAME] + ". It will be left out of the report." );
+            }
+            catch( SQLException se ) {
+                System.out.println( "WARNING: Failed to connect to " + info[NAME] + ". Please check the connection details.  It will be left out of the report." );
+            }
+        }
+
+        // Remember which Oracle URL format worked for each instance
+        connectionManager.saveFormats();
+        connectionManager.shutdown();
+
+        return h2Connections;
+    }
+
+    /*
+     * Display the list of options and get the user's selection.
+     *
+     * Returns:
+     *   -2 for immediate exit, or
+     *   -1 for "all products", or
+     *   A valid numeric selection
+     */
+    private static int getUserSelection() {
+        System.out.println();
+
+        for( int i = 0; i < products.length; i++ ) {
+            System.out.println(String.format("\t[%2d] " + products[i][PRODUCT], i));
+        }
+
+        System.out.println();
+        System.out.println("\t[a] All of the above");
+        System.out.println("\t[q] Quit");
+        System.out.println();
+
+        System.out.print("Enter selection: ");
+
+        Scanner s = new Scanner(System.in);
+        String in = s.nextLine();
+        s.close();
+
+        if( in.toLowerCase().equals("a") ) {
+            return -1;
+        }
+        else if( in.toLowerCase().equals("q") ) {
+            return -2;
+        }
+        else {
+            try {
+                int selection = Integer.parseInt(in);
+
+                if( selection < 0 || selection >= products.length ) {
+                    // A number was entered but it's out of range
+                    System.out.println();
+                    System.out.println("Invalid selection. Please choose a value from the list.");
+                    return -2;
+                }
+
+                return selection;
+            }
+            catch( NumberFormatException nfe ) {
+                // A non-number was entered that was not "a" or "q"
+                System.out.println();
+                System.out.println("Invalid selection. Please choose a value from the list.");
+                return -2;
+            }
+        }
+    }
+
+    /*
+     * Read the installed releases for the matrix's products from a Banner instance and
+     * record which of the ESM releases are still pending in the instance's slot of the
+     * matrix.  The statements are left open for the caller.  This runs on a scan worker
+     * thread, so it must not write anything other than its own slot.
+     *
+     * If a state is given (incremental mode), only the products whose change markers have
+     * moved since the last run are queried, using the per-product queries.  The releases
+     * for every other product are taken from the state.
+     *
+     * If markersRead is also set, the caller has just read the markers into the state, and
+     * the products are judged by those instead of reading them again.
+     *
+     * Otherwise, if serverDiff is set, the pending releases are worked out by Oracle (see
+     * scanOnServer()), unless the connection can't bind the ESM releases.
+     */
+    static void scanInstance(PreparedQueries oracle, PendingMatrix matrix, int instance, boolean bulkFetch,
+                             boolean serverDiff, InstanceState state, boolean markersRead) throws SQLException {
+        // Start and end indexes for reading the products[][] array
+        int start = matrix.first;
+        int end = matrix.last;
+
+        // The result set of the current query
+        ResultSet oracleResult;
+
+        // Dynamically-sized arrays to hold the query results
+        ArrayList<String> gurwadbResults = new ArrayList<String>();
+        ArrayList<String> gurwappResults = new ArrayList<String>();
+        ArrayList<String> verstblResults = new ArrayList<String>();
+
+        // Decoded GURPOST releases, which are only needed as strings to record in the state
+        ArrayList<String> gurpostResults = new ArrayList<String>();
+
+        // Every release installed for the current product
+        VersionSet installed = new VersionSet();
+
+        // Reused to decode each GURPOST patch name into a release
+        GurpostDecoder gurpostDecoder = new GurpostDecoder();
+
+        // In server-side diff mode only the pending releases are read, so nothing is kept for incremental mode
+        if( serverDiff && state == null && scanOnServer(oracle, matrix, instance) ) {
+            return;
+        }
+
+        // Maps to hold the bulk query results (application or table name => releases)
+        Map<String,List<String>> gurwadbBulk = new HashMap<String,List<String>>();
+        Map<String,List<String>> gurwappBulk = new HashMap<String,List<String>>();
+        Map<String,List<String>> verstblBulk = new HashMap<String,List<String>>();
+
+        // The bulk GURPOST results (product code => decoded releases)
+        Map<String,VersionSet> gurpostBulk = new HashMap<String,VersionSet>();
+
+        //
+        // In bulk mode, read every GURWADB, GURWAPP, GURPOST, and *VERS release for the
+        // selected products up front and split them by product below, rather than sending
+        // separate queries for each product.
+        //
+
+        // The markers and bulk queries cover every product
+        oracle.product(null);
+
+        // In incremental mode, read the change markers and only query the products which have changed
+        if( state != null ) {
+            if( ! markersRead ) {
+                state.readMarkers(oracle, start, end);
+            }
+
+            bulkFetch = false;
+        }
+
+        if( bulkFetch ) {
+            List<String> names = productFields(GURWADB, start, end);
+
+            if( names.size() > 0 ) {
+                gurwadbBulk = fetchGrouped(oracle.executeIn("gurwadb_release_bulk", names));
+            }
+
+            names = productFields(GURWAPP, start, end);
+
+            if( names.size() > 0 ) {
+                gurwappBulk = fetchGrouped(oracle.executeIn("gurwapp_release_bulk", names));
+            }
+
+            names = productFields(VERSTBL, start, end);
+
+            if( names.size() > 0 ) {
+                verstblBulk = fetchGrouped(oracle.executeVers("vers_table_release_bulk", names));
+            }
+
+            names = productFields(GURPOST, start, end);
+
+            if( names.size() > 0 ) {
+                gurpostBulk = classifyGurpost(oracle.execute("gurpost_patch_bulk"), names, gurpostDecoder);
+            }
+        }
+
+        for( int i = start; i < end; i++ ) {
+            // Get the info for this product
+            String[] p = products[i];
+            installed.clear();
+            oracle.product(p[RELEASE]);
+
+            // Use the releases from the last run if none of this product's markers have changed
+            if( state != null && state.isUnchanged(p) ) {
+                installed.addAll(state.installed(p));
+
+                // Each product is published to the matrix as soon as it is finished
+                matrix.install(instance, i, installed);
+                matrix.finishProduct(instance, i);
+                continue;
+            }
+
+            // Get all releases in the GURWADB table for this product
+            if( bulkFetch ) {
+                if( gurwadbBulk.containsKey(p[GURWADB]) ) {
+                    gurwadbResults.addAll(gurwadbBulk.get(p[GURWADB]));
+                }
+            }
+            else if( p[GURWADB].length() > 0 ) {
+                oracleResult = oracle.execute("gurwadb_release_by_product", p[GURWADB]);
+
+                // Populate the GURWADB results array with the query results
+                while( oracleResult.next() ) {
+                    gurwadbResults.add(oracleResult.getString(1));
+                }
+
+                oracleResult.close();
+            }
+
+            // Get all releases in the GURWAPP table for this product
+            if( bulkFetch ) {
+                if( gurwappBulk.containsKey(p[GURWAPP]) ) {
+                    gurwappResults.addAll(gurwappBulk.get(p[GURWAPP]));
+                }
+            }
+            else if( p[GURWAPP].length() > 0 ) {
+                oracleResult = oracle.execute("gurwapp_release_by_product", p[GURWAPP]);
+
+                // Populate the GURWAPP results array with the query results
+                while( oracleResult.next() ) {
+                    gurwappResults.add(oracleResult.getString(1));
+                }
+
+                oracleResult.close();
+            }
+
+            // Get all patches in the GURPOST table for this product
+            if( bulkFetch ) {
+                if( gurpostBulk.containsKey(p[GURPOST]) ) {
+                    installed.addAll(gurpostBulk.get(p[GURPOST]));
+                }
+            }
+            else if( p[GURPOST].length() > 0 ) {
+                // Patch names look like pcr-<number>_<code><version>
+                oracleResult = oracle.execute("gurpost_patch_by_product", "pcr-%_" + p[GURPOST] + "%");
+
+                //
+                // This all gets a bit messy because the release numbers are not stored in a friendly
+                // way in GURPOST.  We have to take something like "pcr-000163330_stu8170002" and
+                // convert that into "8.17.0.2", which is done by the GurpostDecoder.
+                //
+
+                while( oracleResult.next() ) {
+                    // Rows which can't be decoded are skipped
+                    if( gurpostDecoder.decode(oracleResult.getString(1), p[GURPOST]) ) {
+                        long key = VersionKeys.key(gurpostDecoder);
+
+                        // Only releases which aren't purely numeric need to be turned into a string
+                        installed.add(key, key == VersionKeys.NONE ? gurpostDecoder.toString() : null);
+
+                        if( state != null ) {
+                            gurpostResults.add(gurpostDecoder.toString());
+                        }
+                    }
+                }
+
+                oracleResult.close();
+            }
+
+            // Get all releases in the *VERS table for this product
+            if( bulkFetch ) {
+                if( verstblBulk.containsKey(p[VERSTBL]) ) {
+                    verstblResults.addAll(verstblBulk.get(p[VERSTBL]));
+                }
+            }
+            else if( p[VERSTBL].length() > 0 ) {
+                oracleResult = oracle.executeVers("vers_table_release", Collections.singletonList(p[VERSTBL]));
+
+                // Populate the VERSTBL results array with the query results
+                while( oracleResult.next() ) {
+                    verstblResults.add(oracleResult.getString(1));
+                }
+
+                oracleResult.close();
+            }
+
+            // Keep the (already sorted) RELEASE results which are not in GURWADB, GURWAPP, GURPOST, or *VERS
+            installed.addAll(gurwadbResults);
+            installed.addAll(gurwappResults);
+            installed.addAll(verstblResults);
+
+            matrix.install(instance, i, installed);
+            matrix.finishProduct(instance, i);
+
+            // Record what was found for the next incremental run
+            if( state != null ) {
+                state.update(p, Arrays.asList(gurwadbResults, gurwappResults, gurpostResults, verstblResults));
+            }
+
+            // Clear out all of the ArrayLists
+            gurwadbResults.clear();
+            gurwappResults.clear();
+            gurpostResults.clear();
+            verstblResults.clear();
+        }
+
+        if( state != null ) {
+            state.save();
+        }
+    }
+
+    /*
+     * Read every patch name from a GURPOST result set in one pass, route each one to the
+     * product codes it belongs to with a GurpostClassifier, and decode it for each of them.
+     * The result set is closed.
+     *
+     * Returns:
+     *   A map of GURPOST product code => the releases installed for it
+     */
+    static Map<String,VersionSet> classifyGurpost(ResultSet result, List<String> codes, GurpostDecoder decoder) throws SQLException {
+        GurpostClassifier classifier = new GurpostClassifier(codes);
+        Map<String,VersionSet> releases = new HashMap<String,VersionSet>();
+
+        for( String code : codes ) {
+            releases.put(code, new VersionSet());
+        }
+
+        while( result.next() ) {
+            String patch = result.getString(1);
+
+            for( int m = 0, n = classifier.classify(patch); m < n; m++ ) {
+                String code = classifier.code(m);
+
+                // Rows which can't be decoded are skipped
+                if( decoder.decode(patch, code) ) {
+                    long key = VersionKeys.key(decoder);
+                    releases.get(code).add(key, key == VersionKeys.NONE ? decoder.toString() : null);
+                }
+            }
+        }
+
+        result.close();
+
+        return releases;
+    }
+
+    /*
+     * Have Oracle work out an instance's pending releases for the matrix's products, with one
+     * query which is given every ESM release and returns only the ones which aren't installed
+     * (see pending_releases_diff).  Each product is published to the matrix as it is filled in.
+     *
+     * Returns:
+     *   true, or false (with nothing published) if the connection can't bind the ESM releases
+     */
+    static boolean scanOnServer(PreparedQueries oracle, PendingMatrix matrix, int instance) throws SQLException {
+        int start = matrix.first;
+        int end = matrix.last;
+
+        // Every ESM release, as "<product> <position> <release>"
+        List<String> esmReleases = new ArrayList<String>(matrix.releaseCount(instance));
+
+        for( int i = start; i < end; i++ ) {
+            String[] releases = matrix.releases(instance, i);
+
+            for( int r = 0; r < releases.length; r++ ) {
+                esmReleases.add(i + " " + r + " " + releases[r]);
+            }
+        }
+
+        // [product - start] => positions of the pending releases, which may arrive in any order
+        BitSet[] pending = new BitSet[end - start];
+
+        for( int i = start; i < end; i++ ) {
+            pending[i - start] = new BitSet();
+        }
+
+        if( esmReleases.size() > 0 ) {
+            ResultSet oracleResult;
+
+            try {
+                oracleResult = oracle.executeDiff("pending_releases_diff", "vers_table_release_bulk", esmReleases, start, end);
+            }
+            catch( SQLFeatureNotSupportedException sfnse ) {
+                return false;
+            }
+
+            while( oracleResult.next() ) {
+                pending[oracleResult.getInt(1) - start].set(oracleResult.getInt(2));
+            }
+
+            oracleResult.close();
+        }
+
+        for( int i = start; i < end; i++ ) {
+            matrix.installAllBut(instance, i, pending[i - start]);
+            matrix.finishProduct(instance, i);
+        }
+
+        return true;
+    }
+
+    /*
+     * Scan every Banner instance into the matrix, with each instance on its own worker from
+     * the executor, and wait for them all to finish or be given up on at the deadline.  See
+     * startScans(), cancelScansAt(), and awaitScans().
+     */
+    static void scanInstances(ExecutorService executor, PreparedQueries[] oracle, List<String[]> oracleInfo,
+                              PendingMatrix matrix, boolean bulkFetch, boolean serverDiff, File stateDir,
+                              long timeoutMillis, RunMetrics metrics) throws Exception {
+        List<Future<?>> scans = startScans(executor, oracle, oracleInfo, matrix, bulkFetch, serverDiff, stateDir, metrics);
+        Timer deadline = cancelScansAt(oracle, matrix, timeoutMillis);
+
+        try {
+            awaitScans(scans, matrix);
+        }
+        finally {
+            if( deadline != null ) {
+                deadline.cancel();
+            }
+        }
+    }
+
+    /*
+     * Start scanning every Banner instance into the matrix, with each instance on its own
+     * worker from the executor.  If a state directory is given, each instance is scanned
+     * incrementally using its state file in that directory.  If metrics are given, the
+     * time taken by each scan is recorded as a "scan" phase.
+     *
+     * An instance with no connection (oracle[x] is null) is marked as not connected, and an
+     * instance whose scan fails is marked as failed (or timed out, if a query timed out or
+     * was cancelled), so the other instances can still be reported.
+     *
+     * Returns:
+     *   [instance] => the scan, or null if the instance isn't connected, to be passed to awaitScans()
+     */
+    static List<Future<?>> startScans(ExecutorService executor, PreparedQueries[] oracle, List<String[]> oracleInfo,
+                                      final PendingMatrix matrix, final boolean bulkFetch, final boolean serverDiff,
+                                      File stateDir, final RunMetrics metrics) {
+        List<Future<?>> scans = new ArrayList<Future<?>>();
+
+        for( int x = 0; x < oracle.length; x++ ) {
+            final PreparedQueries instanceQueries = oracle[x];
+            final int instance = x;
+
+            if( instanceQueries == null ) {
+                matrix.fail(instance, PendingMatrix.NOT_CONNECTED, null);
+                scans.add(null);
+                continue;
+            }
+
+            // In incremental mode, each instance keeps what it found in a state file for the next run
+            final InstanceState state = stateDir != null ? InstanceState.load(stateDir, oracleInfo.get(x)) : null;
+
+            scans.add(executor.submit(new Callable<Void>() {
+                public Void call() {
+                    long started = System.nanoTime();
+
+                    try {
+                        scanInstance(instanceQueries, matrix, instance, bulkFetch, serverDiff, state, false);
+                    }
+                    catch( SQLException se ) {
+                        boolean timedOut = se instanceof SQLTimeoutException || instanceQueries.isCancelled();
+                        matrix.fail(instance, timedOut ? PendingMatrix.TIMED_OUT : PendingMatrix.FAILED, se);
+                        return null;
+                    }
+                    catch( RuntimeException | Error e ) {
+                        // Don't leave anything waiting for products this instance will never finish,
+                        // even if it ran out of memory or a driver class couldn't be loaded
+                        matrix.fail(instance, PendingMatrix.FAILED, e);
+                        throw e;
+                    }
+
+                    if( metrics != null ) {
+                        metrics.phase("scan", matrix.instances[instance], started);
+                    }
+
+                    return null;
+                }
+            }));
+        }
+
+        return scans;
+    }
+
+    /*
+     * Give up on every instance which hasn't finished its scan timeoutMillis from now: mark
+     * it as timed out and cancel the query it is running.
+     *
+     * Returns:
+     *   The timer, to be cancelled once the scans have finished, or null if timeoutMillis is 0
+     */
+    static Timer cancelScansAt(final PreparedQueries[] oracle, final PendingMatrix matrix, long timeoutMillis) {
+        if( timeoutMillis <= 0 ) {
+            return null;
+        }
+
+        Timer timer = new Timer("deadline", true);
+
+        timer.schedule(new TimerTask() {
+            public void run() {
+                for( int x = 0; x < oracle.length; x++ ) {
+                    if( ! matrix.isDone(x) ) {
+                        matrix.fail(x, PendingMatrix.TIMED_OUT, new SQLTimeoutException("The run deadline passed"));
+                        oracle[x].cancel();
+                    }
+                }
+            }
+        }, timeoutMillis);
+
+        return timer;
+    }
+
+    /*
+     * Wait for every scan to finish, so no worker is still using a connection when this
+     * returns.  A scan which was given up on at the deadline is only waited for briefly, as
+     * a query which is stuck (e.g., on a network which has gone away) may not be cancelled.
+     * A scan failure which isn't a database error is then thrown.
+     */
+    static void awaitScans(List<Future<?>> scans, PendingMatrix matrix) throws Exception {
+        Exception failure = null;
+
+        for( int x = 0; x < scans.size(); x++ ) {
+            Future<?> scan = scans.get(x);
+
+            try {
+                while( scan != null && ! scan.isDone() && matrix.error(x) == null ) {
+                    try {
+                        scan.get(1, TimeUnit.SECONDS);
+                    }
+                    catch( TimeoutException te ) {
+                        // Check whether the instance has been given up on
+                    }
+                }
+
+                if( scan != null ) {
+                    scan.get(CANCEL_GRACE_SECONDS, TimeUnit.SECONDS);
+                }
+            }
+            catch( TimeoutException te ) {
+                // The instance is already marked as timed out
+            }
+            catch( ExecutionException ee ) {
+                if( failure == null ) {
+                    failure = ee.getCause() instanceof Exception ? (Exception) ee.getCause() : ee;
+                }
+            }
+        }
+
+        if( failure != null ) {
+            throw failure;
+        }
+    }
+
+    /*
+     * Set the bit of each ESM release which is in the installed set, in a bitset where
+     * release r is bit r from the given word.
+     */
+    static void markInstalled(VersionSet installed, String[] releases, long[] keys, long[] bits, int word) {
+        for( int r = 0; r < releases.length; r++ ) {
+            if( installed.contains(keys[r], releases[r]) ) {
+                bits[word + (r >> 6)] |= 1L << r;
+            }
+        }
+    }
+
+    /*
+     * Read the connection info for each orcl.dbN block in the config, in order of N.  Blocks
+     * with an empty host are skipped, so any number of Banner instances may be configured.
+     *
+     * Returns:
+     *   A list of Oracle connection info arrays, indexed by the HOST..JDBC constants
+     */
+    static List<String[]> readOracleInfo(Properties config) {
+        List<String[]> oracleInfo = new ArrayList<String[]>();
+        SortedSet<Integer> numbers = new TreeSet<Integer>();
+
+        // Find the N of every orcl.dbN.host property
+        for( String key : config.stringPropertyNames() ) {
+            if( key.matches("orcl\\.db[0-9]+\\.host") ) {
+                numbers.add(Integer.valueOf(key.substring(7, key.length() - 5)));
+            }
+        }
+
+        for( int n : numbers ) {
+            String prefix = "orcl.db" + n + ".";
+
+            if( config.getProperty(prefix + "host","").trim().equals("") ) {
+                continue;
+            }
+
+            String[] info = new String[7];
+            info[HOST] = config.getProperty(prefix + "host").trim();
+            info[PORT] = config.getProperty(prefix + "port","").trim();
+            info[NAME] = config.getProperty(prefix + "name","").trim();
+            info[USER] = config.getProperty(prefix + "user","").trim();
+            info[PASS] = config.getProperty(prefix + "pass","").trim();
+            info[ESM]  = config.getProperty(prefix + "esm","").trim();
+
+            if( info[PORT].equals("") || info[NAME].equals("") || info[USER].equals("") || info[PASS].equals("") ) {
+                System.out.println( "ERROR: Missing connection detail for Oracle DB " + n + ". Please check the config." );
+                System.exit(1);
+            }
+
+            info[JDBC] = ConnectionManager.url(ConnectionManager.SERVICE_FORMAT, info);
+            oracleInfo.add(info);
+        }
+
+        return oracleInfo;
+    }
+
+    /*
+     * Read the connection info for the ESM servers: the h2.db settings (named by h2.db.name),
+     * and then each esm.N block in order of N (named by esm.N.name), e.g.:
+     *
+     *   esm.1.name = CONSORTIUM
+     *   esm.1.h2.db.file = /mnt/consortium/ESMAdminProdDb.mv.db
+     *   esm.1.h2.db.file.pass, esm.1.h2.db.user, esm.1.h2.db.user.pass, esm.1.h2.db.mode, esm.1.h2.db.reader
+     *
+     * The h2.db settings may be left out if esm.N blocks are configured.  Servers with the
+     * same database file are merged into one entry, so the file is only read once.
+     *
+     * Returns:
+     *   A list of ESM connection info arrays, indexed by the ESM_NAME..ESM_READER constants
+     */
+    static List<String[]> readEsmInfo(Properties config) {
+        List<String[]> esmInfo = new ArrayList<String[]>();
+        SortedSet<Integer> numbers = new TreeSet<Integer>();
+
+        if( ! config.getProperty("h2.db.file","").trim().equals("") ) {
+            addEsmInfo(esmInfo, config, "", config.getProperty("h2.db.name","ESM").trim());
+        }
+
+        // Find the N of every esm.N.h2.db.file property
+        for( String key : config.stringPropertyNames() ) {
+            if( key.matches("esm\\.[0-9]+\\.h2\\.db\\.file") ) {
+                numbers.add(Integer.valueOf(key.substring(4, key.length() - 11)));
+            }
+        }
+
+        for( int n : numbers ) {
+            if( ! config.getProperty("esm." + n + ".h2.db.file","").trim().equals("") ) {
+                addEsmInfo(esmInfo, config, "esm." + n + ".", config.getProperty("esm." + n + ".name","ESM" + n).trim());
+            }
+        }
+
+        return esmInfo;
+    }
+
+    // Add the ESM server whose settings start with prefix, or merge it with a server already added for the same file
+    private static void addEsmInfo(List<String[]> esmInfo, Properties config, String prefix, String name) {
+        String[] info = new String[7];
+        String mode = config.getProperty(prefix + "h2.db.mode","copy").trim();
+
+        info[ESM_NAME]    = name;
+        info[ESM_FILE]    = config.getProperty(prefix + "h2.db.file").trim();
+        info[ESM_USER]    = config.getProperty(prefix + "h2.db.user","").trim();
+        info[ESM_PASS]    = config.getProperty(prefix + "h2.db.file.pass","").trim() + " " + config.getProperty(prefix + "h2.db.user.pass","").trim();
+        info[ESM_ALIASES] = name;
+        info[ESM_READER]  = config.getProperty(prefix + "h2.db.reader","jdbc").trim();
+
+        if( info[ESM_USER].equals("") || info[ESM_PASS].trim().equals("") || info[ESM_FILE].indexOf(".") < 0 ) {
+            System.out.println( "ERROR: Missing connection detail for ESM database " + name + ". Please check the config." );
+            System.exit(1);
+        }
+
+        String base = info[ESM_FILE].substring(0, info[ESM_FILE].indexOf("."));
+
+        if( mode.equals("snapshot") ) {
+            // Read the live file in place through the read-only snapshot file system, without a lock
+            SnapshotFilePath.register();
+            info[ESM_JDBC] = String.format("jdbc:h2:snapshot:%s;%s", base, "CIPHER=AES;ACCESS_MODE_DATA=r;FILE_LOCK=NO;TRACE_LEVEL_FILE=0");
+        }
+        else if( mode.equals("copy") ) {
+            info[ESM_JDBC] = String.format("jdbc:h2:%s;%s", base, "CIPHER=AES");
+        }
+        else {
+            System.out.println( "ERROR: Unknown h2.db.mode '" + mode + "' for ESM database " + name + ". Please check the config." );
+            System.exit(1);
+        }
+
+        if( ! info[ESM_READER].equals("jdbc") && ! info[ESM_READER].equals("mvstore") ) {
+            System.out.println( "ERROR: Unknown h2.db.reader '" + info[ESM_READER] + "' for ESM database " + name + ". Please check the config." );
+            System.exit(1);
+        }
+
+        for( String[] other : esmInfo ) {
+            if( new File(other[ESM_FILE]).getAbsoluteFile().equals(new File(info[ESM_FILE]).getAbsoluteFile()) ) {
+                other[ESM_ALIASES] += "," + name;
+                return;
+            }
+        }
+
+        esmInfo.add(info);
+    }
+
+    /*
+     * Find the ESM server for each Banner instance, from its orcl.dbN.esm setting.  Instances
+     * without one are compared with the first ESM server.
+     *
+     * Returns:
+     *   [instance] => index of its ESM server in esmInfo
+     */
+    static int[] assignEsm(List<String[]> oracleInfo, List<String[]> esmInfo) {
+        int[] esmOf = new int[oracleInfo.size()];
+
+        for( int x = 0; x < esmOf.length; x++ ) {
+            String name = oracleInfo.get(x)[ESM];
+            esmOf[x] = -1;
+
+            for( int e = 0; e < esmInfo.size() && esmOf[x] < 0; e++ ) {
+                if( name.equals("") || Arrays.asList(esmInfo.get(e)[ESM_ALIASES].split(",")).contains(name) ) {
+                    esmOf[x] = e;
+                }
+            }
+
+            if( esmOf[x] < 0 ) {
+                System.out.println( "ERROR: Unknown ESM server '" + name + "' for Oracle DB " + oracleInfo.get(x)[NAME] + ". Please check the config." );
+                System.exit(1);
+            }
+        }
+
+        return esmOf;
+    }
+
+    /*
+     * The column name for each Banner instance.  With more than one ESM server configured
+     * (fleet mode), the instance is prefixed with the name of its ESM server, e.g.,
+     * CONSORTIUM/PROD, so instances with the same name on different servers can be told apart.
+     */
+    static String[] instanceLabels(List<String[]> oracleInfo, List<String[]> esmInfo, int[] esmOf) {
+        boolean fleet = esmInfo.size() > 1 || esmInfo.get(0)[ESM_ALIASES].contains(",");
+        String[] labels = new String[oracleInfo.size()];
+
+        for( int x = 0; x < labels.length; x++ ) {
+            String[] info = oracleInfo.get(x);
+            String esm = info[ESM].equals("") ? esmInfo.get(esmOf[x])[ESM_NAME] : info[ESM];
+
+            labels[x] = fleet ? esm + "/" + info[NAME] : info[NAME];
+        }
+
+        return labels;
+    }
+
+    /*
+     * Load the ESM releases from each ESM server at the same time, on the given executor.
+     * The time taken by each is recorded as an "esm_load" phase, if metrics are given.
+     *
+     * A server without a connection is read directly with EsmReleaseReader, filtered by
+     * gaReleasesOnly as query is.  If its file can't be read that way, it is connected to
+     * instead, and the connection is stored in h2Connections for the caller to close.
+     *
+     * Returns:
+     *   [ESM server] => the releases, as from loadEsmReleases()
+     */
+    static List<Map<String,List<String>>> loadEsmReleases(ExecutorService executor, final Connection[] h2Connections,
+                                                          final List<String[]> esmInfo, final String query,
+                                                          final boolean gaReleasesOnly, final RunMetrics metrics) throws Exception {
+        List<Future<Map<String,List<String>>>> loads = new ArrayList<Future<Map<String,List<String>>>>();
+
+        for( int e = 0; e < h2Connections.length; e++ ) {
+            final int esm = e;
+
+            loads.add(executor.submit(new Callable<Map<String,List<String>>>() {
+                public Map<String,List<String>> call() throws SQLException {
+                    long started = System.nanoTime();
+                    String[] info = esmInfo.get(esm);
+                    Map<String,List<String>> releases = null;
+
+                    if( h2Connections[esm] == null ) {
+                        try {
+                            releases = EsmReleaseReader.read(info, gaReleasesOnly, metrics);
+                        }
+                        catch( SQLFeatureNotSupportedException sfnse ) {
+                            System.out.println( "WARNING: " + sfnse.getMessage() + ". It will be read through JDBC instead." );
+                            h2Connections[esm] = ConnectionManager.connect(info[ESM_JDBC], info[ESM_USER], info[ESM_PASS]);
+                        }
+                    }
+
+                    if( releases == null ) {
+                        releases = loadEsmReleases(h2Connections[esm], query, info[ESM_NAME], metrics);
+                    }
+
+                    if( metrics != null ) {
+                        metrics.phase("esm_load", esmInfo.get(esm)[ESM_NAME], started);
+                    }
+
+                    return releases;
+                }
+            }));
+        }
+
+        List<Map<String,List<String>>> esmReleases = new ArrayList<Map<String,List<String>>>();
+
+        for( Future<Map<String,List<String>>> load : loads ) {
+            try {
+                esmReleases.add(load.get());
+            }
+            catch( ExecutionException ee ) {
+                throw ee.getCause() instanceof Exception ? (Exception) ee.getCause() : ee;
+            }
+        }
+
+        return esmReleases;
+    }
+
+    /*
+     * Connect to each ESM server which is read directly (h2.db.reader = mvstore), for
+     * product discovery, which queries the ESM databases through JDBC.  The releases are
+     * then loaded through the same connections.
+     */
+    static void connectDirectReaders(Connection[] h2Connections, List<String[]> esmInfo) throws SQLException {
+        for( int e = 0; e < h2Connections.length; e++ ) {
+            String[] esm = esmInfo.get(e);
+
+            if( h2Connections[e] == null ) {
+                h2Connections[e] = ConnectionManager.connect(esm[ESM_JDBC], esm[ESM_USER], esm[ESM_PASS]);
+            }
+        }
+    }
+
+    /*
+     * Read the whole RELEASE table from the ESM database in a single query and index the
+     * release versions by product.
+     *
+     * Returns:
+     *   A map of ESM product name (PRODUCT_ID) => release versions for that product
+     */
+    static Map<String,List<String>> loadEsmReleases(Connection h2Connection, String query, String esmName, RunMetrics metrics) throws SQLException {
+        long started = System.nanoTime();
+        Statement h2Statement = h2Connection.createStatement();
+        ResultSet result = h2Statement.executeQuery(query);
+
+        if( metrics != null ) {
+            result = metrics.watch(result, esmName, "*", "esm_releases", started, h2Statement.getFetchSize());
+        }
+
+        Map<String,List<String>> releases = fetchGrouped(result);
+        h2Statement.close();
+
+        return releases;
+    }
+
+    /*
+     * Read the (key, value) rows of a result set, group the values by key, and close it.
+     *
+     * Returns:
+     *   A map of key => values, in the order the rows were returned
+     */
+    private static Map<String,List<String>> fetchGrouped(ResultSet result) throws SQLException {
+        Map<String,List<String>> grouped = new HashMap<String,List<String>>();
+
+        while( result.next() ) {
+            String key = result.getString(1);
+            List<String> values = grouped.get(key);
+
+            if( values == null ) {
+                values = new ArrayList<String>();
+                grouped.put(key, values);
+            }
+
+            values.add(result.getString(2));
+        }
+
+        result.close();
+
+        return grouped;
+    }
+
+    /*
+     * Get the distinct values of the given field for products[start..end), skipping products
+     * which don't have a value for that field.
+     *
+     * Returns:
+     *   The values, in product order
+     */
+    static List<String> productFields(int field, int start, int end) {
+        Set<String> values = new LinkedHashSet<String>();
+
+        for( int i = start; i < end; i++ ) {
+            if( products[i][field].length() > 0 ) {
+                values.add(products[i][field]);
+            }
+        }
+
+        return new ArrayList<String>(values);
+    }
+
+    /*
+     * Get the longest product name in the products[][] array.
+     *
+     * Returns:
+     *   The length of the longest string in the PRODUCT field of the products[][] array
+     */
+    private static int getLongestProductName() {
+        int tmp = 0;
+        int max = 0;
+
+        for( int i = 0; i < products.length; i++ ) {
+            tmp = products[i][PRODUCT].length();
+
+            if( tmp > max ) {
+                max = tmp;
+            }
+        }
+
+        return max;
+    }
+}
@@ -0,0 +1,544 @@
+package edu.utica.banner;
+
+import java.io.*;
+import java.net.*;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import com.sun.net.httpserver.*;
+
+/*
+ * Daemon mode, started with the --daemon argument.
+ *
+ * The pending releases for every product are refreshed every daemon_refresh_seconds and
+ * kept in memory as a ready-to-send JSON document, which is served over HTTP:
+ *
+ *   GET /pending - the pending releases in each Banner instance for every product
+ *   GET /compare?pending=<instance>&installed=<instance>
+ *                - the releases pending in one instance which are installed in another
+ *   GET /status  - when the results were generated, and how the last refresh went
+ *
+ * Readers only ever see the cached results, so any number of them cause no database load.
+ * If the results are older than daemon_cache_ttl_seconds (e.g., because a refresh failed),
+ * the last good results are served with "stale": true and a refresh is started, with at
+ * most one refresh running at a time.
+ *
+ * The Oracle connections are opened once (in parallel, by a ConnectionManager) and kept for
+ * every refresh, and are only reopened if they are no longer valid.  The ESM databases are
+ * opened for each refresh, as an H2 connection would not see releases added to the file
+ * after it was opened.
+ *
+ * In product_discovery mode, the product catalog is discovered again by the first refresh
+ * after it is older than product_catalog_max_age_hours.
+ *
+ * A Banner instance which can't be connected to, fails, or misses the refresh deadline
+ * (run_timeout_seconds) doesn't hold up the others.  Its pending lists are null, "errors"
+ * says why, and a timed out instance is reconnected by the next refresh.
+ */
+final class PendingDaemon {
+    // Seconds to wait for a connection to answer when checking that it is still valid
+    private static final int VALID_TIMEOUT = 10;
+
+    private final List<String[]> esmInfo;
+    private final String[] esmPasswords;  // Kept, since the ESM databases are opened for every refresh
+    private final List<String[]> oracleInfo;
+    private final int[] esmOf;            // [instance] => the ESM server the instance is compared with
+    private final Map<String,String> queries;
+    private final boolean gaReleasesOnly;
+    private final boolean bulkFetch;
+    private final boolean serverDiff;
+    private final int fetchSize;
+    private final int queryTimeout;       // Seconds allowed for each query, or 0 for no limit
+    private final long refreshTimeout;    // Milliseconds allowed for each refresh's scans, or 0 for no limit
+    private final File stateDir;          // null unless incremental mode is on
+    private final String bindAddress;
+    private final int port;
+    private final long refreshSeconds;
+    private final long ttlMillis;
+    private final boolean discoverProducts;
+    private final File catalogFile;       // null if the catalog isn't saved
+    private final long catalogMaxAge;
+    private long catalogTime;             // When the product catalog was discovered, or 0 if it hasn't been
+
+    private final Connection[] oracleConnections;
+    private final PreparedQueries[] oracleQueries;    // Kept with each connection, so statements are reused between refreshes
+    private final String[] instanceNames;
+    private final ExecutorService scanExecutor;
+    private final ConnectionManager connections;
+    private final ScheduledExecutorService refresher = Executors.newSingleThreadScheduledExecutor();
+    private final AtomicBoolean refreshing = new AtomicBoolean();
+
+    // The latest results, replaced as a whole by each successful refresh
+    private volatile Results results;
+
+    // How the last refresh went
+    private volatile long lastRefreshMillis;
+    private volatile long lastDurationMillis;
+    private volatile String lastError;
+    private final AtomicLong refreshCount = new AtomicLong();
+
+    /*
+     * The results of one refresh, with the instance and product lists already written as the
+     * tail of a JSON object so each request only has to add the timestamps in front.  The
+     * matrix is kept for /compare.
+     */
+    private static final class Results {
+        final long generated;
+        final byte[] body;
+        final PendingBannerReleases.PendingMatrix matrix;
+
+        Results(long generated, byte[] body, PendingBannerReleases.PendingMatrix matrix) {
+            this.generated = generated;
+            this.body = body;
+            this.matrix = matrix;
+        }
+    }
+
+    PendingDaemon(Properties config, List<String[]> esmInfo, List<String[]> oracleInfo, int[] esmOf, Map<String,String> queries) {
+        this.esmInfo = esmInfo;
+        this.oracleInfo = oracleInfo;
+        this.esmOf = esmOf;
+        this.queries = queries;
+
+        esmPasswords = new String[esmInfo.size()];
+
+        for( int e = 0; e < esmPasswords.length; e++ ) {
+            esmPasswords[e] = esmInfo.get(e)[PendingBannerReleases.ESM_PASS];
+        }
+
+        gaReleasesOnly = Boolean.parseBoolean(config.getProperty("ga_releases_only","false").trim());
+        bulkFetch      = Boolean.parseBoolean(config.getProperty("bulk_fetch","true").trim());
+        serverDiff     = Boolean.parseBoolean(config.getProperty("server_side_diff","false").trim());
+        fetchSize      = Integer.parseInt(config.getProperty("fetch_size","500").trim());
+        queryTimeout   = Integer.parseInt(config.getProperty("query_timeout_seconds","300").trim());
+        refreshTimeout = 1000L * Long.parseLong(config.getProperty("run_timeout_seconds","0").trim());
+        bindAddress    = config.getProperty("daemon_bind_address","127.0.0.1").trim();
+        port           = Integer.parseInt(config.getProperty("daemon_port","8095").trim());
+        refreshSeconds = Long.parseLong(config.getProperty("daemon_refresh_seconds","900").trim());
+        ttlMillis      = 1000L * Long.parseLong(config.getProperty("daemon_cache_ttl_seconds","1800").trim());
+
+        discoverProducts = Boolean.parseBoolean(config.getProperty("product_discovery","false").trim());
+        String catalogPath = config.getProperty("product_catalog_file","products.catalog").trim();
+        catalogFile = catalogPath.length() > 0 ? new File(catalogPath) : null;
+        catalogMaxAge = 3600000L * Long.parseLong(config.getProperty("product_catalog_max_age_hours","24").trim());
+
+        if( discoverProducts ) {
+            String[][] catalog = ProductCatalog.load(catalogFile, catalogMaxAge);
+
+            if( catalog != null ) {
+                PendingBannerReleases.products = catalog;
+                catalogTime = catalogFile.lastModified();
+            }
+        }
+
+        boolean incremental = Boolean.parseBoolean(config.getProperty("incremental","false").trim());
+        stateDir = incremental ? new File(config.getProperty("incremental_state_dir","state").trim()) : null;
+
+        int maxConcurrentScans = Integer.parseInt(config.getProperty("max_concurrent_scans","8").trim());
+        scanExecutor = Executors.newFixedThreadPool(Math.max(1, Math.min(maxConcurrentScans, Math.max(oracleInfo.size(), esmInfo.size()))));
+
+        connections = new ConnectionManager(new File(config.getProperty("jdbc_format_cache","jdbc_formats.properties").trim()), null);
+        oracleConnections = new Connection[oracleInfo.size()];
+        oracleQueries = new PreparedQueries[oracleInfo.size()];
+        instanceNames = PendingBannerReleases.instanceLabels(oracleInfo, esmInfo, esmOf);
+
+        for( String[] esm : esmInfo ) {
+            if( ! esm[PendingBannerReleases.ESM_JDBC].startsWith("jdbc:h2:snapshot:") ) {
+                System.out.println( "WARNING: h2.db.mode is copy, so new ESM releases are only seen when " + esm[PendingBannerReleases.ESM_FILE]
+                                    + " is copied again.  Use snapshot mode to read the live file." );
+            }
+        }
+    }
+
+    /*
+     * Start the HTTP server and the scheduled refreshes.  The first refresh starts right away,
+     * and /pending answers 503 until it has finished.
+     */
+    void start() throws Exception {
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getByName(bindAddress), port), 0);
+        server.setExecutor(Executors.newFixedThreadPool(4));
+
+        server.createContext("/pending", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                servePending(exchange);
+            }
+        });
+
+        server.createContext("/compare", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                serveCompare(exchange);
+            }
+        });
+
+        server.createContext("/status", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                serveStatus(exchange);
+            }
+        });
+
+        server.start();
+        System.out.println("* Serving pending releases on http://" + bindAddress + ":" + port + "/pending");
+
+        refresher.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                if( refreshing.compareAndSet(false, true) ) {
+                    refresh();
+                }
+            }
+        }, 0, refreshSeconds, TimeUnit.SECONDS);
+    }
+
+    // Start a refresh on the refresher thread, unless one is already running or queued
+    private void requestRefresh() {
+        if( refreshing.compareAndSet(false, true) ) {
+            refresher.execute(new Runnable() {
+                public void run() {
+                    refresh();
+                }
+            });
+        }
+    }
+
+    /*
+     * Load the ESM releases, scan every Banner instance, and replace the cached results.  If
+     * the ESM releases can't be loaded, the previous results are kept and the error is
+     * reported by /status.  Instances which can't be scanned are marked in the new results,
+     * and listed by /status.  Only runs on the refresher thread, with the refreshing flag set.
+     */
+    private void refresh() {
+        long started = System.currentTimeMillis();
+
+        try {
+            // Check the Oracle connections, dropping any which have been lost
+            for( int x = 0; x < oracleConnections.length; x++ ) {
+                if( oracleConnections[x] != null && ! oracleConnections[x].isValid(VALID_TIMEOUT) ) {
+                    System.out.println("* Lost the connection to " + instanceNames[x] + ", reconnecting");
+                    closeQuietly(oracleConnections[x]);
+                    oracleConnections[x] = null;
+                    oracleQueries[x] = null;
+                }
+            }
+
+            // Open the ESM databases, and any Oracle connection which was never opened or has been lost, at the same time
+            List<Future<Connection>> h2Futures = new ArrayList<Future<Connection>>();
+
+            for( int e = 0; e < esmInfo.size(); e++ ) {
+                String[] esm = esmInfo.get(e);
+                h2Futures.add(esm[PendingBannerReleases.ESM_READER].equals("mvstore") ? null
+                              : connections.open(esm[PendingBannerReleases.ESM_NAME], esm[PendingBannerReleases.ESM_JDBC],
+                                                 esm[PendingBannerReleases.ESM_USER], esmPasswords[e]));
+            }
+
+            Map<Integer,Future<Connection>> reconnects = new HashMap<Integer,Future<Connection>>();
+
+            for( int x = 0; x < oracleConnections.length; x++ ) {
+                if( oracleConnections[x] == null ) {
+                    reconnects.put(x, connections.openOracle(oracleInfo.get(x)));
+                }
+            }
+
+            boolean allConnected = true;
+
+            for( Map.Entry<Integer,Future<Connection>> reconnect : reconnects.entrySet() ) {
+                String[] info = oracleInfo.get(reconnect.getKey());
+
+                try {
+                    oracleConnections[reconnect.getKey()] = ConnectionManager.get(reconnect.getValue());
+                    oracleQueries[reconnect.getKey()] = new PreparedQueries(oracleConnections[reconnect.getKey()], queries, fetchSize, queryTimeout, null, null);
+                    System.out.println("* Connected to " + info[PendingBannerReleases.NAME] + " as " + info[PendingBannerReleases.USER]);
+                }
+                catch( SQLException se ) {
+                    // Tried again by the next refresh
+                    System.out.println( "WARNING: Failed to connect to " + info[PendingBannerReleases.NAME] + ": " + se.getMessage() );
+                    allConnected = false;
+                }
+            }
+
+            connections.saveFormats();
+
+            List<Map<String,List<String>>> esmReleases;
+            Connection[] h2Connections = new Connection[esmInfo.size()];
+
+            try {
+                for( int e = 0; e < h2Connections.length; e++ ) {
+                    if( h2Futures.get(e) != null ) {
+                        h2Connections[e] = ConnectionManager.get(h2Futures.get(e));
+                    }
+                }
+
+                // Only discover the products with every instance connected, so none of them are missed
+                if( discoverProducts && allConnected && System.currentTimeMillis() - catalogTime > catalogMaxAge ) {
+                    PendingBannerReleases.connectDirectReaders(h2Connections, esmInfo);
+                    PendingBannerReleases.products = ProductCatalog.discover(h2Connections, oracleConnections, instanceNames, queries, queryTimeout, catalogFile, null);
+                    catalogTime = System.currentTimeMillis();
+                }
+
+                esmReleases = PendingBannerReleases.loadEsmReleases(scanExecutor, h2Connections, esmInfo, queries.get("esm_releases"), gaReleasesOnly, null);
+            }
+            finally {
+                for( Connection h2Connection : h2Connections ) {
+                    if( h2Connection != null ) {
+                        h2Connection.close();
+                    }
+                }
+            }
+
+            PendingBannerReleases.PendingMatrix matrix = new PendingBannerReleases.PendingMatrix(0, PendingBannerReleases.products.length, instanceNames, esmReleases, esmOf);
+            PendingBannerReleases.scanInstances(scanExecutor, oracleQueries, oracleInfo, matrix, bulkFetch, serverDiff, stateDir, refreshTimeout, null);
+
+            StringBuilder missing = new StringBuilder();
+
+            for( int x = 0; x < instanceNames.length; x++ ) {
+                if( matrix.error(x) != null ) {
+                    missing.append(missing.length() > 0 ? ", " : "").append(instanceNames[x]).append(" (").append(matrix.error(x)).append(")");
+                }
+
+                // A timed out query may still be running, so the connection is replaced by the next refresh
+                if( PendingBannerReleases.PendingMatrix.TIMED_OUT.equals(matrix.error(x)) ) {
+                    abortQuietly(oracleConnections[x]);
+                    oracleConnections[x] = null;
+                    oracleQueries[x] = null;
+                }
+            }
+
+            results = new Results(started, toJson(matrix).getBytes("UTF-8"), matrix);
+            lastError = missing.length() > 0 ? "Not scanned: " + missing : null;
+
+            if( lastError != null ) {
+                System.out.println( "WARNING: " + lastError );
+            }
+        }
+        catch( Exception e ) {
+            lastError = e.getMessage() != null ? e.getMessage() : e.toString();
+            System.out.println( "ERROR: Refresh failed: " + lastError );
+        }
+        finally {
+            lastRefreshMillis = started;
+            lastDurationMillis = System.currentTimeMillis() - started;
+            refreshCount.incrementAndGet();
+            refreshing.set(false);
+        }
+    }
+
+    // GET /pending
+    private void servePending(HttpExchange exchange) throws IOException {
+        Results r = results;
+
+        if( r == null ) {
+            send(exchange, 503, "{\"error\":" + ReportFormat.quote(lastError != null ? lastError : "The first refresh has not finished") + "}");
+            return;
+        }
+
+        byte[] head = head(r).getBytes("UTF-8");
+
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(200, head.length + r.body.length);
+
+        OutputStream body = exchange.getResponseBody();
+        body.write(head);
+        body.write(r.body);
+        body.close();
+    }
+
+    /*
+     * GET /compare?pending=<instance>&installed=<instance>
+     *
+     * The releases of each product which are pending in the first instance but already
+     * installed in the second, e.g. those which have gone into PROD but not TEST, worked out
+     * from the cached results a word at a time (see PendingMatrix.pendingOnlyIn()).  A
+     * product which either instance didn't finish has null releases.
+     */
+    private void serveCompare(HttpExchange exchange) throws IOException {
+        Results r = results;
+
+        if( r == null ) {
+            send(exchange, 503, "{\"error\":" + ReportFormat.quote(lastError != null ? lastError : "The first refresh has not finished") + "}");
+            return;
+        }
+
+        Map<String,String> parameters = parameters(exchange.getRequestURI().getRawQuery());
+        PendingBannerReleases.PendingMatrix matrix = r.matrix;
+        int pendingIn = Arrays.asList(matrix.instances).indexOf(parameters.get("pending"));
+        int installedIn = Arrays.asList(matrix.instances).indexOf(parameters.get("installed"));
+
+        if( pendingIn < 0 || installedIn < 0 ) {
+            send(exchange, 400, "{\"error\":" + ReportFormat.quote("Usage: /compare?pending=<instance>&installed=<instance>, with instances from /pending") + "}");
+            return;
+        }
+
+        if( matrix.esm[pendingIn] != matrix.esm[installedIn] ) {
+            send(exchange, 400, "{\"error\":" + ReportFormat.quote(matrix.instances[pendingIn] + " and " + matrix.instances[installedIn]
+                                                                     + " are compared with different ESM servers") + "}");
+            return;
+        }
+
+        StringBuilder json = new StringBuilder(head(r));
+
+        json.append("\"pending\":").append(ReportFormat.quote(matrix.instances[pendingIn]));
+        json.append(",\"installed\":").append(ReportFormat.quote(matrix.instances[installedIn]));
+        json.append(",\"products\":[");
+
+        for( int i = matrix.first; i < matrix.last; i++ ) {
+            String[] p = matrix.products[i];
+            BitSet only = matrix.pendingOnlyIn(pendingIn, installedIn, i);
+
+            json.append(i > matrix.first ? "," : "");
+            json.append("{\"product\":").append(ReportFormat.quote(p[PendingBannerReleases.PRODUCT]));
+            json.append(",\"release\":").append(ReportFormat.quote(p[PendingBannerReleases.RELEASE]));
+            json.append(",\"releases\":");
+
+            if( only == null ) {
+                json.append("null}");
+                continue;
+            }
+
+            json.append("[");
+
+            for( int z = only.nextSetBit(0), shown = 0; z >= 0; z = only.nextSetBit(z + 1), shown++ ) {
+                json.append(shown > 0 ? "," : "").append(ReportFormat.quote(matrix.releases(pendingIn, i)[z]));
+            }
+
+            json.append("]}");
+        }
+
+        send(exchange, 200, json.append("]}").toString());
+    }
+
+    /*
+     * The start of a JSON object for some results: when they were generated, and whether
+     * they are stale.  A refresh is started if they are.
+     */
+    private String head(Results r) {
+        long age = System.currentTimeMillis() - r.generated;
+
+        if( age > ttlMillis ) {
+            requestRefresh();
+        }
+
+        return "{\"generated\":" + ReportFormat.quote(timestamp(r.generated)) + ",\"age_seconds\":" + (age / 1000)
+               + ",\"stale\":" + (age > ttlMillis) + ",";
+    }
+
+    // The parameters of a URL query string, e.g. "pending=TEST&installed=PROD"
+    private static Map<String,String> parameters(String query) throws UnsupportedEncodingException {
+        Map<String,String> parameters = new HashMap<String,String>();
+
+        if( query == null ) {
+            return parameters;
+        }
+
+        for( String pair : query.split("&") ) {
+            int equals = pair.indexOf('=');
+
+            if( equals > 0 ) {
+                parameters.put(URLDecoder.decode(pair.substring(0, equals), "UTF-8"), URLDecoder.decode(pair.substring(equals + 1), "UTF-8"));
+            }
+        }
+
+        return parameters;
+    }
+
+    // GET /status
+    private void serveStatus(HttpExchange exchange) throws IOException {
+        Results r = results;
+        StringBuilder json = new StringBuilder("{");
+
+        json.append("\"generated\":").append(r != null ? ReportFormat.quote(timestamp(r.generated)) : "null");
+        json.append(",\"refreshing\":").append(refreshing.get());
+        json.append(",\"refreshes\":").append(refreshCount.get());
+        json.append(",\"last_refresh\":").append(lastRefreshMillis > 0 ? ReportFormat.quote(timestamp(lastRefreshMillis)) : "null");
+        json.append(",\"last_refresh_ms\":").append(lastDurationMillis);
+        json.append(",\"last_error\":").append(lastError != null ? ReportFormat.quote(lastError) : "null");
+        json.append("}");
+
+        send(exchange, 200, json.toString());
+    }
+
+    /*
+     * Write the instances and the pending releases for each product as the rest of a JSON
+     * object, with one list of pending releases per instance in the order of "instances".
+     * "errors" has the error for each instance which couldn't be scanned (or null), and the
+     * pending lists it didn't finish are null.
+     */
+    static String toJson(PendingBannerReleases.PendingMatrix matrix) {
+        StringBuilder json = new StringBuilder("\"instances\":[");
+
+        for( int x = 0; x < matrix.instances.length; x++ ) {
+            json.append(x > 0 ? "," : "").append(ReportFormat.quote(matrix.instances[x]));
+        }
+
+        json.append("],\"errors\":[");
+
+        for( int x = 0; x < matrix.instances.length; x++ ) {
+            String error = matrix.error(x);
+            json.append(x > 0 ? "," : "").append(error != null ? ReportFormat.quote(error) : "null");
+        }
+
+        json.append("],\"products\":[");
+
+        for( int i = matrix.first; i < matrix.last; i++ ) {
+            String[] p = matrix.products[i];
+
+            json.append(i > matrix.first ? "," : "");
+            json.append("{\"product\":").append(ReportFormat.quote(p[PendingBannerReleases.PRODUCT]));
+            json.append(",\"release\":").append(ReportFormat.quote(p[PendingBannerReleases.RELEASE]));
+            json.append(",\"pending\":[");
+
+            for( int x = 0; x < matrix.instances.length; x++ ) {
+                if( matrix.error(x, i) != null ) {
+                    json.append(x > 0 ? ",null" : "null");
+                    continue;
+                }
+
+                json.append(x > 0 ? ",[" : "[");
+
+                for( int z = 0; z < matrix.pendingCount(x, i); z++ ) {
+                    json.append(z > 0 ? "," : "").append(ReportFormat.quote(matrix.pending(x, i, z)));
+                }
+
+                json.append("]");
+            }
+
+            json.append("]}");
+        }
+
+        return json.append("]}").toString();
+    }
+
+    // A time in milliseconds as an ISO-8601 UTC timestamp
+    private static String timestamp(long millis) {
+        return java.time.Instant.ofEpochMilli(millis).toString();
+    }
+
+    private static void send(HttpExchange exchange, int status, String json) throws IOException {
+        byte[] body = json.getBytes("UTF-8");
+
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+
+        OutputStream out = exchange.getResponseBody();
+        out.write(body);
+        out.close();
+    }
+
+    // Drop a connection without waiting for a query which may be stuck on it
+    private void abortQuietly(Connection connection) {
+        try {
+            connection.abort(scanExecutor);
+        }
+        catch( SQLException se ) {
+            // The connection is being replaced anyway
+        }
+    }
+
+    private static void closeQuietly(Connection connection) {
+        try {
+            connection.close();
+        }
+        catch( SQLException se ) {
+            // The connection is being replaced anyway
+        }
+    }
+}
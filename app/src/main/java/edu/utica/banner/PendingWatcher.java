@@ -0,0 +1,326 @@
+package edu.utica.banner;
+
+import java.io.*;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/*
+ * Watch mode, started with the --watch argument.
+ *
+ * Every product's pending releases are read once, and then each Banner instance is polled for
+ * the change markers used by incremental mode (see InstanceState): the row count and latest
+ * activity date or release of GURPOST, GURWADB, GURWAPP, and the *VERS tables, read with a
+ * few aggregate queries.  Only when an instance's markers move are its products scanned again,
+ * and then only the products whose markers changed are queried.  Each release which has been
+ * installed (or is pending again) since the last check is reported as it is found.
+ *
+ * The polls start watch_min_interval_seconds apart.  Each poll which finds no change doubles
+ * the interval, up to watch_max_interval_seconds, and a change drops it back to the minimum,
+ * so a quiet database is hardly queried at all.
+ *
+ * The ESM releases are loaded when watching starts.  Restart the watch to see releases added
+ * to ESM after that.
+ */
+final class PendingWatcher {
+    // Seconds to wait for a connection to answer when checking that it is still valid
+    private static final int VALID_TIMEOUT = 10;
+
+    private final List<String[]> esmInfo;
+    private final List<String[]> oracleInfo;
+    private final int[] esmOf;                // [instance] => the ESM server the instance is compared with
+    private final Map<String,String> queries;
+    private final boolean gaReleasesOnly;
+    private final int fetchSize;
+    private final int queryTimeout;           // Seconds allowed for each query, or 0 for no limit
+    private final long minInterval;           // Milliseconds between polls after a change
+    private final long maxInterval;           // Most milliseconds between polls when nothing changes
+    private final boolean discoverProducts;
+    private final File catalogFile;           // null if the catalog isn't saved
+    private final long catalogMaxAge;
+
+    private final String[] instanceNames;
+    private final ConnectionManager connections;
+    private final ExecutorService pollExecutor;
+
+    private final Connection[] oracleConnections;
+    private final PreparedQueries[] oracleQueries;
+    private final InstanceState[] states;     // [instance] => the installed releases and markers, kept in memory
+    private final String[] signals;           // [instance] => the markers the pending releases were read under, or null before the first scan
+    private final PendingBannerReleases.PendingMatrix[] pending;  // [instance] => the latest pending releases, in a one-instance matrix
+    private List<Map<String,List<String>>> esmReleases;
+
+    PendingWatcher(Properties config, List<String[]> esmInfo, List<String[]> oracleInfo, int[] esmOf, Map<String,String> queries) {
+        this.esmInfo = esmInfo;
+        this.oracleInfo = oracleInfo;
+        this.esmOf = esmOf;
+        this.queries = queries;
+
+        gaReleasesOnly = Boolean.parseBoolean(config.getProperty("ga_releases_only","false").trim());
+        fetchSize   = Integer.parseInt(config.getProperty("fetch_size","500").trim());
+        queryTimeout = Integer.parseInt(config.getProperty("query_timeout_seconds","300").trim());
+        minInterval = 1000L * Long.parseLong(config.getProperty("watch_min_interval_seconds","30").trim());
+        maxInterval = 1000L * Long.parseLong(config.getProperty("watch_max_interval_seconds","900").trim());
+
+        discoverProducts = Boolean.parseBoolean(config.getProperty("product_discovery","false").trim());
+        String catalogPath = config.getProperty("product_catalog_file","products.catalog").trim();
+        catalogFile = catalogPath.length() > 0 ? new File(catalogPath) : null;
+        catalogMaxAge = 3600000L * Long.parseLong(config.getProperty("product_catalog_max_age_hours","24").trim());
+
+        int maxConcurrentScans = Integer.parseInt(config.getProperty("max_concurrent_scans","8").trim());
+        pollExecutor = Executors.newFixedThreadPool(Math.max(1, Math.min(maxConcurrentScans, Math.max(oracleInfo.size(), esmInfo.size()))));
+
+        connections = new ConnectionManager(new File(config.getProperty("jdbc_format_cache","jdbc_formats.properties").trim()), null);
+        instanceNames = PendingBannerReleases.instanceLabels(oracleInfo, esmInfo, esmOf);
+        oracleConnections = new Connection[oracleInfo.size()];
+        oracleQueries = new PreparedQueries[oracleInfo.size()];
+        states = new InstanceState[oracleInfo.size()];
+        signals = new String[oracleInfo.size()];
+        pending = new PendingBannerReleases.PendingMatrix[oracleInfo.size()];
+
+        for( int x = 0; x < states.length; x++ ) {
+            states[x] = InstanceState.inMemory();
+        }
+    }
+
+    /*
+     * Load the ESM releases and watch the Banner instances until the program is stopped.
+     */
+    void run() throws Exception {
+        // Connect to everything at the same time
+        List<Future<Connection>> h2Futures = new ArrayList<Future<Connection>>();
+        List<Future<Connection>> oracleFutures = new ArrayList<Future<Connection>>();
+
+        for( String[] esm : esmInfo ) {
+            h2Futures.add(esm[PendingBannerReleases.ESM_READER].equals("mvstore") ? null
+                          : connections.open(esm[PendingBannerReleases.ESM_NAME], esm[PendingBannerReleases.ESM_JDBC],
+                                             esm[PendingBannerReleases.ESM_USER], esm[PendingBannerReleases.ESM_PASS]));
+        }
+
+        for( String[] info : oracleInfo ) {
+            oracleFutures.add(connections.openOracle(info));
+        }
+
+        Connection[] h2Connections = new Connection[esmInfo.size()];
+
+        for( int e = 0; e < h2Connections.length; e++ ) {
+            if( h2Futures.get(e) == null ) {
+                continue;
+            }
+
+            try {
+                h2Connections[e] = ConnectionManager.get(h2Futures.get(e));
+            }
+            catch( SQLException se ) {
+                System.out.println( "ERROR: Failed to connect to " + esmInfo.get(e)[PendingBannerReleases.ESM_FILE] + ". Please check the connection details and try again." );
+                System.exit(1);
+            }
+        }
+
+        boolean allConnected = true;
+
+        for( int x = 0; x < oracleConnections.length; x++ ) {
+            try {
+                connected(x, ConnectionManager.get(oracleFutures.get(x)));
+            }
+            catch( SQLException se ) {
+                // Tried again by each poll
+                System.out.println( "WARNING: Failed to connect to " + instanceNames[x] + ": " + se.getMessage() );
+                allConnected = false;
+            }
+        }
+
+        connections.saveFormats();
+
+        // Only discover the products with every instance connected, so none of them are missed
+        if( discoverProducts ) {
+            String[][] catalog = ProductCatalog.load(catalogFile, catalogMaxAge);
+
+            if( catalog == null && allConnected ) {
+                PendingBannerReleases.connectDirectReaders(h2Connections, esmInfo);
+                catalog = ProductCatalog.discover(h2Connections, oracleConnections, instanceNames, queries, queryTimeout, catalogFile, null);
+            }
+
+            if( catalog != null ) {
+                PendingBannerReleases.products = catalog;
+            }
+        }
+
+        esmReleases = PendingBannerReleases.loadEsmReleases(pollExecutor, h2Connections, esmInfo, queries.get("esm_releases"), gaReleasesOnly, null);
+
+        for( Connection h2Connection : h2Connections ) {
+            if( h2Connection != null ) {
+                h2Connection.close();
+            }
+        }
+
+        System.out.println("* Watching " + PendingBannerReleases.products.length + " products in " + instanceNames.length
+                           + " Banner instances.  Press Ctrl-C to stop.");
+
+        long interval = minInterval;
+
+        while( true ) {
+            interval = poll() ? minInterval : Math.min(maxInterval, interval * 2);
+            Thread.sleep(interval);
+        }
+    }
+
+    /*
+     * Check every instance at the same time.
+     *
+     * Returns:
+     *   true if any instance's markers had changed
+     */
+    private boolean poll() throws InterruptedException {
+        List<Future<Boolean>> checks = new ArrayList<Future<Boolean>>();
+
+        for( int x = 0; x < oracleConnections.length; x++ ) {
+            final int instance = x;
+
+            checks.add(pollExecutor.submit(new Callable<Boolean>() {
+                public Boolean call() {
+                    return check(instance);
+                }
+            }));
+        }
+
+        boolean changed = false;
+
+        for( Future<Boolean> check : checks ) {
+            try {
+                changed |= check.get();
+            }
+            catch( ExecutionException ee ) {
+                System.out.println( "WARNING: " + now() + " " + ee.getCause() );
+            }
+        }
+
+        return changed;
+    }
+
+    /*
+     * Read an instance's change markers, and if they have moved (or its releases have never
+     * been read), scan it again and report what changed.  A failure is reported and the
+     * instance is tried again by the next poll.
+     *
+     * Returns:
+     *   true if the instance was scanned
+     */
+    private boolean check(int x) {
+        int productCount = PendingBannerReleases.products.length;
+
+        try {
+            // Reconnect if the connection has been lost
+            if( oracleConnections[x] != null && ! oracleConnections[x].isValid(VALID_TIMEOUT) ) {
+                System.out.println("* " + now() + " Lost the connection to " + instanceNames[x] + ", reconnecting");
+                closeQuietly(oracleConnections[x]);
+                oracleConnections[x] = null;
+            }
+
+            if( oracleConnections[x] == null ) {
+                connected(x, connections.connectOracle(oracleInfo.get(x)));
+                connections.saveFormats();
+            }
+
+            // The cheap check: only the markers are read, unless they have changed
+            states[x].readMarkers(oracleQueries[x], 0, productCount);
+
+            if( signals[x] != null && states[x].signal().equals(signals[x]) ) {
+                return false;
+            }
+
+            PendingBannerReleases.PendingMatrix before = pending[x];
+            PendingBannerReleases.PendingMatrix after = new PendingBannerReleases.PendingMatrix(0, productCount, new String[] { instanceNames[x] },
+                                                                                                Collections.singletonList(esmReleases.get(esmOf[x])), new int[1]);
+
+            // Only the products whose markers changed are queried, judged by the markers just read; the rest come from the state
+            PendingBannerReleases.scanInstance(oracleQueries[x], after, 0, false, false, states[x], true);
+
+            signals[x] = states[x].signal();
+            pending[x] = after;
+            report(x, before, after);
+
+            return true;
+        }
+        catch( SQLException se ) {
+            System.out.println( "WARNING: " + now() + " Failed to check " + instanceNames[x] + ": " + se.getMessage() );
+            return false;
+        }
+    }
+
+    // Keep a new connection to an instance
+    private void connected(int x, Connection connection) {
+        oracleConnections[x] = connection;
+        oracleQueries[x] = new PreparedQueries(connection, queries, fetchSize, queryTimeout, null, instanceNames[x]);
+        System.out.println("* Connected to " + instanceNames[x]);
+    }
+
+    /*
+     * Print the releases which were installed in an instance since its last scan, and those
+     * which are pending again (e.g., because their rows were removed), in one block.
+     */
+    private void report(int x, PendingBannerReleases.PendingMatrix before, PendingBannerReleases.PendingMatrix after) {
+        StringBuilder lines = new StringBuilder();
+
+        if( before == null ) {
+            int total = 0;
+
+            for( int i = after.first; i < after.last; i++ ) {
+                total += after.pendingCount(0, i);
+            }
+
+            System.out.println("* " + now() + " " + instanceNames[x] + ": " + total + " releases pending");
+            return;
+        }
+
+        // Both scans are of the same ESM releases, so the changes are worked out a word at a time
+        for( int i = after.first; i < after.last; i++ ) {
+            BitSet installed = before.pendingOnlyIn(0, after, 0, i);
+            BitSet again = after.pendingOnlyIn(0, before, 0, i);
+            String[] releases = after.releases(0, i);
+            String product = after.products[i][PendingBannerReleases.PRODUCT];
+
+            if( installed != null && ! installed.isEmpty() ) {
+                lines.append("* ").append(now()).append(" ").append(instanceNames[x]).append(": ").append(product)
+                     .append(" installed ").append(join(installed, releases)).append(ReportFormat.NEWLINE);
+            }
+
+            if( again != null && ! again.isEmpty() ) {
+                lines.append("* ").append(now()).append(" ").append(instanceNames[x]).append(": ").append(product)
+                     .append(" pending again ").append(join(again, releases)).append(ReportFormat.NEWLINE);
+            }
+        }
+
+        if( lines.length() == 0 ) {
+            lines.append("* ").append(now()).append(" ").append(instanceNames[x]).append(": changed, with no change to the pending releases")
+                 .append(ReportFormat.NEWLINE);
+        }
+
+        System.out.print(lines);
+    }
+
+    // The releases at the positions set in a bitset, separated by commas
+    private static String join(BitSet positions, String[] releases) {
+        StringBuilder joined = new StringBuilder();
+
+        for( int z = positions.nextSetBit(0); z >= 0; z = positions.nextSetBit(z + 1) ) {
+            joined.append(joined.length() > 0 ? ", " : "").append(releases[z]);
+        }
+
+        return joined.toString();
+    }
+
+    // The current date and time, for the start of each message
+    private static String now() {
+        return String.format("%tF %<tT", new java.util.Date());
+    }
+
+    private static void closeQuietly(Connection connection) {
+        try {
+            connection.close();
+        }
+        catch( SQLException se ) {
+            // The connection is being replaced anyway
+        }
+    }
+}
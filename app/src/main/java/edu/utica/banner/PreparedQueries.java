@@ -0,0 +1,254 @@
+package edu.utica.banner;
+
+import java.sql.*;
+import java.util.*;
+import java.util.regex.*;
+
+/*
+ * The queries for one Banner instance, run as prepared statements with bind variables.
+ *
+ * Each distinct SQL text is prepared once per connection and reused for every product (and,
+ * in daemon mode, every refresh), so Oracle only parses it once.  Product names are always
+ * bound, never formatted into the SQL.  The exception is the name of a *VERS table, which
+ * can't be bound; those are checked against the tables in products[][] (the current product
+ * catalog) before they are put into a query.
+ *
+ * A query in the queries map may contain one %s, which is replaced with either a ?
+ * placeholder for each value of an IN list, or a vetted *VERS table name.  The server-side
+ * diff query (see executeDiff()) is the exception, with two.
+ *
+ * If run metrics are being collected, each query is recorded under its name in the queries
+ * map, the instance, and the product set with product().
+ *
+ * Each statement is given the query_timeout_seconds timeout, and cancel() (called from another
+ * thread when the run deadline passes) stops the query which is running and any which follow.
+ */
+final class PreparedQueries {
+    // What a *VERS table name must look like, even if it is in products[][]
+    static final Pattern VERS_TABLE = Pattern.compile("[A-Z][A-Z0-9_]{0,25}VERS");
+
+    // The Oracle collection type the ESM releases are bound as in executeDiff(), and its size limit
+    static final String STRING_LIST = "SYS.ODCIVARCHAR2LIST";
+    static final int MAX_LIST_SIZE = 32767;
+
+    private final Connection connection;
+    private final Map<String,String> queries;
+    private final int fetchSize;
+    private final int queryTimeout;       // Seconds, or 0 for no timeout
+    private final Map<String,PreparedStatement> statements = new HashMap<String,PreparedStatement>();
+    private final RunMetrics metrics;     // null unless metrics are being collected
+    private final String instance;
+    private String product = "*";
+    private volatile PreparedStatement running;   // The statement most recently run, which cancel() stops
+    private volatile boolean cancelled;
+
+    PreparedQueries(Connection connection, Map<String,String> queries, int fetchSize, int queryTimeout, RunMetrics metrics, String instance) {
+        this.connection = connection;
+        this.queries = queries;
+        this.fetchSize = fetchSize;
+        this.queryTimeout = queryTimeout;
+        this.metrics = metrics;
+        this.instance = instance;
+    }
+
+    /*
+     * Set the product the following queries are for, in the metrics, or null for queries
+     * which cover every product.
+     */
+    void product(String product) {
+        this.product = product != null ? product : "*";
+    }
+
+    /*
+     * Run a query with a bind variable for each value.
+     */
+    ResultSet execute(String name, String... values) throws SQLException {
+        return execute(name, queries.get(name), null, Arrays.asList(values));
+    }
+
+    /*
+     * Run a query whose %s is an IN list, with a bind variable for each value.
+     */
+    ResultSet executeIn(String name, List<String> values) throws SQLException {
+        StringBuilder placeholders = new StringBuilder();
+
+        for( int v = 0; v < values.size(); v++ ) {
+            placeholders.append(v > 0 ? ",?" : "?");
+        }
+
+        return execute(name, String.format(queries.get(name), placeholders), null, values);
+    }
+
+    /*
+     * Run a query against each of the given *VERS tables, joined with UNION ALL.  Every %s
+     * in the query is replaced with the table name.
+     */
+    ResultSet executeVers(String name, List<String> tables) throws SQLException {
+        return execute(name, versUnion(name, tables), null, Collections.<String>emptyList());
+    }
+
+    /*
+     * Run the server-side diff query for products[first..last), with the ESM releases bound
+     * as a single collection (STRING_LIST) in place of its ?.  The first %s is replaced with
+     * a row of bind variables for each product (its index and GURWADB, GURWAPP, GURPOST, and
+     * *VERS table names), and the second with versTableQuery run against each *VERS table.
+     *
+     * Throws:
+     *   SQLFeatureNotSupportedException if the connection can't bind an Oracle collection,
+     *   including when the OJDBC driver isn't on the classpath at all
+     */
+    ResultSet executeDiff(String name, String versTableQuery, List<String> esmReleases, int first, int last) throws SQLException {
+        boolean isOracle;
+
+        try {
+            isOracle = connection.isWrapperFor(oracle.jdbc.OracleConnection.class);
+        }
+        catch( NoClassDefFoundError ncdfe ) {
+            isOracle = false;
+        }
+
+        if( ! isOracle || esmReleases.size() > MAX_LIST_SIZE ) {
+            throw new SQLFeatureNotSupportedException("Can't bind " + esmReleases.size() + " releases as " + STRING_LIST);
+        }
+
+        StringBuilder names = new StringBuilder();
+        List<String> values = new ArrayList<String>();
+        List<String> tables = new ArrayList<String>();
+
+        for( int i = first; i < last; i++ ) {
+            String[] p = PendingBannerReleases.products[i];
+
+            if( names.length() > 0 ) {
+                names.append(" UNION ALL ");
+            }
+
+            names.append("SELECT ").append(i).append(" AS PRODUCT, ? AS GURWADB, ? AS GURWAPP, ? AS GURPOST, ? AS VERSTBL FROM DUAL");
+            values.addAll(Arrays.asList(p[PendingBannerReleases.GURWADB], p[PendingBannerReleases.GURWAPP],
+                                        p[PendingBannerReleases.GURPOST], p[PendingBannerReleases.VERSTBL]));
+
+            if( p[PendingBannerReleases.VERSTBL].length() > 0 && ! tables.contains(p[PendingBannerReleases.VERSTBL]) ) {
+                tables.add(p[PendingBannerReleases.VERSTBL]);
+            }
+        }
+
+        String vers = tables.isEmpty() ? "SELECT NULL, NULL FROM DUAL WHERE 1 = 0" : versUnion(versTableQuery, tables);
+        Array releases = connection.unwrap(oracle.jdbc.OracleConnection.class)
+                                   .createOracleArray(STRING_LIST, esmReleases.toArray(new String[esmReleases.size()]));
+
+        try {
+            return execute(name, String.format(queries.get(name), names, vers), releases, values);
+        }
+        finally {
+            releases.free();
+        }
+    }
+
+    /*
+     * Stop the query which is running, if any, and fail every later query with a
+     * SQLTimeoutException.  May be called from any thread.
+     */
+    void cancel() {
+        cancelled = true;
+        PreparedStatement statement = running;
+
+        if( statement != null ) {
+            try {
+                statement.cancel();
+            }
+            catch( SQLException se ) {
+                // The query has finished, or the connection is already broken
+            }
+        }
+    }
+
+    // Whether cancel() has been called
+    boolean isCancelled() {
+        return cancelled;
+    }
+
+    /*
+     * Close the prepared statements.  The connection is left open.
+     */
+    void close() throws SQLException {
+        for( PreparedStatement statement : statements.values() ) {
+            statement.close();
+        }
+
+        statements.clear();
+    }
+
+    Connection connection() {
+        return connection;
+    }
+
+    // Check that a table is the *VERS table of a product in the catalog
+    private static boolean isProductVersTable(String table) {
+        for( String[] product : PendingBannerReleases.products ) {
+            if( product[PendingBannerReleases.VERSTBL].equals(table) ) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    // The named query run against each of the given *VERS tables, joined with UNION ALL
+    private String versUnion(String name, List<String> tables) throws SQLException {
+        StringBuilder sql = new StringBuilder();
+
+        for( String table : tables ) {
+            if( ! isProductVersTable(table) || ! VERS_TABLE.matcher(table).matches() ) {
+                throw new SQLException("Refusing to query unknown *VERS table '" + table + "'");
+            }
+
+            if( sql.length() > 0 ) {
+                sql.append(" UNION ALL ");
+            }
+
+            sql.append(queries.get(name).replace("%s", table));
+        }
+
+        return sql.toString();
+    }
+
+    /*
+     * Prepare the SQL (or reuse the statement already prepared for it) and run it.  If an
+     * array is given, it is bound to the first ? and the values to the rest.
+     */
+    private ResultSet execute(String name, String sql, Array array, List<String> values) throws SQLException {
+        if( cancelled ) {
+            throw new SQLTimeoutException("Cancelled at the run deadline");
+        }
+
+        long started = System.nanoTime();
+        PreparedStatement statement = statements.get(sql);
+
+        if( statement == null ) {
+            statement = connection.prepareStatement(sql);
+            statement.setFetchSize(fetchSize);
+            statement.setQueryTimeout(queryTimeout);
+            statements.put(sql, statement);
+        }
+
+        int first = 1;
+
+        if( array != null ) {
+            statement.setArray(first++, array);
+        }
+
+        for( int v = 0; v < values.size(); v++ ) {
+            statement.setString(first + v, values.get(v));
+        }
+
+        running = statement;
+
+        // Check again, in case cancel() was called before the statement could be stopped
+        if( cancelled ) {
+            throw new SQLTimeoutException("Cancelled at the run deadline");
+        }
+
+        ResultSet result = statement.executeQuery();
+
+        return metrics != null ? metrics.watch(result, instance, product, name, started, fetchSize) : result;
+    }
+}
@@ -0,0 +1,356 @@
+package edu.utica.banner;
+
+import java.io.*;
+import java.sql.*;
+import java.util.*;
+
+/*
+ * The products to look for, built from the databases themselves when product_discovery is on.
+ *
+ * The built-in products[][] table maps each ESM product to where Banner records its releases,
+ * and new products (e.g., new BXE applications) can't be tracked until it is updated.  Discovery
+ * builds the catalog in one pass, with the same number of queries however many products there
+ * are:
+ *
+ *   each ESM       - one query for the distinct PRODUCT_IDs in RELEASE
+ *   each instance  - one query for the distinct GURWAPP and GURWADB application names, and
+ *                    one metadata lookup for the *VERS tables which exist
+ *
+ * Products which ESM has no releases for are dropped, since nothing can be pending for them,
+ * and *VERS tables which don't exist in any instance are no longer queried.  An ESM product
+ * which isn't known yet is added if an application name or *VERS table which no other product
+ * uses matches its name (e.g., BXE_ETRANS and eTranscript), where a *VERS table must be in every
+ * instance, since a missing table would fail the instance's scan.  Otherwise it is written to the
+ * catalog file commented out, along with the unclaimed names, so it can be mapped by hand.
+ *
+ * The catalog is saved in product_catalog_file, one product per line with the fields of
+ * products[][] separated by |, and is read from there instead of being discovered again until
+ * it is older than product_catalog_max_age_hours.  Products added or corrected in the file
+ * are kept by later discoveries.
+ */
+final class ProductCatalog {
+    private ProductCatalog() {
+    }
+
+    /*
+     * Read the catalog file, if it was written within the last maxAgeMillis.
+     *
+     * Returns:
+     *   The products in the file, or null if it is missing, too old, or has no products
+     */
+    static String[][] load(File file, long maxAgeMillis) {
+        if( file == null || ! file.isFile() || System.currentTimeMillis() - file.lastModified() > maxAgeMillis ) {
+            return null;
+        }
+
+        List<String[]> products = read(file);
+
+        return products.isEmpty() ? null : products.toArray(new String[products.size()][]);
+    }
+
+    /*
+     * Build the catalog from every ESM database and Banner instance, and save it to file
+     * (unless file is null).  Each query is given queryTimeout seconds (0 for no limit).
+     *
+     * Returns:
+     *   The products, with the known ones in their usual order and any new ones after them
+     */
+    static String[][] discover(Connection[] esm, Connection[] oracle, String[] instanceNames, Map<String,String> queries,
+                               int queryTimeout, File file, RunMetrics metrics) throws SQLException {
+        // The known products: the built-in table, with the products in the catalog file added or replacing them
+        Map<String,String[]> known = new LinkedHashMap<String,String[]>();
+
+        for( String[] p : PendingBannerReleases.BUILT_IN_PRODUCTS ) {
+            known.put(p[PendingBannerReleases.RELEASE], p.clone());
+        }
+
+        if( file != null && file.isFile() ) {
+            for( String[] p : read(file) ) {
+                known.put(p[PendingBannerReleases.RELEASE], p);
+            }
+        }
+
+        // The ESM products which have releases on any ESM server
+        Set<String> esmProducts = new TreeSet<String>();
+
+        for( Connection connection : esm ) {
+            esmProducts.addAll(readColumn(connection, queries.get("esm_products"), queryTimeout, "ESM", "esm_products", metrics));
+        }
+
+        // The application names and *VERS tables in any instance.  A *VERS table is only
+        // dropped if every instance could list its *VERS tables and none of them has it.
+        Set<String> applications = new TreeSet<String>();
+        Set<String> versTables = new TreeSet<String>();
+        Map<String,Integer> versCounts = new HashMap<String,Integer>();     // *VERS table => number of instances which have it
+        boolean allVersListed = true;
+
+        for( int x = 0; x < oracle.length; x++ ) {
+            applications.addAll(readColumn(oracle[x], queries.get("application_names"), queryTimeout, instanceNames[x], "application_names", metrics));
+
+            List<String> tables = readVersTables(oracle[x], instanceNames[x], metrics);
+            allVersListed = allVersListed && ! tables.isEmpty();
+            versTables.addAll(tables);
+
+            for( String table : new HashSet<String>(tables) ) {
+                Integer count = versCounts.get(table);
+                versCounts.put(table, count != null ? count + 1 : 1);
+            }
+        }
+
+        // Keep the known products ESM has releases for, and note which names they use
+        List<String[]> products = new ArrayList<String[]>();
+        Set<String> claimed = new HashSet<String>();
+
+        for( String[] p : known.values() ) {
+            if( ! esmProducts.isEmpty() && ! esmProducts.contains(p[PendingBannerReleases.RELEASE]) ) {
+                continue;
+            }
+
+            if( allVersListed && p[PendingBannerReleases.VERSTBL].length() > 0 && ! versTables.contains(p[PendingBannerReleases.VERSTBL]) ) {
+                p[PendingBannerReleases.VERSTBL] = "";
+            }
+
+            claimed.add(p[PendingBannerReleases.GURWADB]);
+            claimed.add(p[PendingBannerReleases.GURWAPP]);
+            claimed.add(p[PendingBannerReleases.VERSTBL]);
+            products.add(p);
+        }
+
+        applications.removeAll(claimed);
+        versTables.removeAll(claimed);
+
+        // Add the new ESM products which can be matched to an unclaimed application name or *VERS table
+        List<String> unmapped = new ArrayList<String>();
+        int added = 0;
+
+        for( String release : esmProducts ) {
+            if( known.containsKey(release) ) {
+                continue;
+            }
+
+            String[] p = { release, release, "", "", "", "" };
+            String key = normalize(release.substring(release.indexOf('_') + 1));
+
+            for( Iterator<String> i = applications.iterator(); i.hasNext(); ) {
+                String name = i.next();
+
+                if( matches(key, name) ) {
+                    // Read both tables, since an application may record its releases in either
+                    p[PendingBannerReleases.GURWADB] = name;
+                    p[PendingBannerReleases.GURWAPP] = name;
+                    i.remove();
+                    break;
+                }
+            }
+
+            String versTable = key.toUpperCase() + "VERS";
+
+            if( versTables.contains(versTable) && versCounts.get(versTable) == oracle.length ) {
+                p[PendingBannerReleases.VERSTBL] = versTable;
+                versTables.remove(versTable);
+            }
+
+            if( p[PendingBannerReleases.GURWAPP].length() > 0 || p[PendingBannerReleases.VERSTBL].length() > 0 ) {
+                products.add(p);
+                added++;
+            }
+            else {
+                unmapped.add(release);
+            }
+        }
+
+        System.out.println("* Discovered " + products.size() + " products (" + added + " new)");
+
+        if( ! unmapped.isEmpty() ) {
+            System.out.println( "WARNING: No Banner tables were found for the ESM products " + join(unmapped)
+                                + (file != null ? ". They can be mapped by hand in " + file + "." : ".") );
+        }
+
+        String[][] catalog = products.toArray(new String[products.size()][]);
+
+        if( file != null ) {
+            save(file, catalog, unmapped, applications, versTables);
+        }
+
+        return catalog;
+    }
+
+    // Read the products in a catalog file, skipping comments and malformed lines
+    private static List<String[]> read(File file) {
+        List<String[]> products = new ArrayList<String[]>();
+
+        try {
+            BufferedReader input = new BufferedReader(new FileReader(file));
+            String line;
+
+            while( (line = input.readLine()) != null ) {
+                if( line.trim().length() == 0 || line.trim().startsWith("#") ) {
+                    continue;
+                }
+
+                String[] p = line.split("\\|", -1);
+
+                if( p.length != 6 || p[PendingBannerReleases.PRODUCT].trim().length() == 0 || p[PendingBannerReleases.RELEASE].trim().length() == 0 ) {
+                    System.out.println( "WARNING: Skipping malformed line in " + file + ": " + line );
+                    continue;
+                }
+
+                for( int f = 0; f < p.length; f++ ) {
+                    p[f] = p[f].trim();
+                }
+
+                if( p[PendingBannerReleases.VERSTBL].length() > 0 && ! PreparedQueries.VERS_TABLE.matcher(p[PendingBannerReleases.VERSTBL]).matches() ) {
+                    System.out.println( "WARNING: Skipping invalid *VERS table name in " + file + ": " + line );
+                    continue;
+                }
+
+                products.add(p);
+            }
+
+            input.close();
+        }
+        catch( IOException ioe ) {
+            System.out.println( "WARNING: Failed to read " + file + "." );
+        }
+
+        return products;
+    }
+
+    /*
+     * Save the catalog, with the products which couldn't be mapped commented out, and the
+     * unclaimed names listed to help map them.
+     */
+    private static void save(File file, String[][] products, List<String> unmapped, Set<String> applications, Set<String> versTables) {
+        try {
+            file.getAbsoluteFile().getParentFile().mkdirs();
+
+            // Write a new file and move it into place, so a reader never sees a partial catalog
+            File tmp = new File(file.getPath() + ".tmp");
+            BufferedWriter output = new BufferedWriter(new FileWriter(tmp));
+
+            output.write("# Pending Banner Releases product catalog, discovered " + java.time.Instant.now());
+            output.newLine();
+            output.write("# [Friendly name]|[ESM name]|[GURPOST name]|[GURWADB name]|[GURWAPP name]|[*VERS table name]");
+            output.newLine();
+
+            for( String[] p : products ) {
+                output.write(join(Arrays.asList(p), "|"));
+                output.newLine();
+            }
+
+            if( ! unmapped.isEmpty() ) {
+                output.newLine();
+                output.write("# ESM products with no Banner tables found.  Fill in their names and remove the # to track them.");
+                output.newLine();
+                output.write("# Unclaimed application names: " + join(applications));
+                output.newLine();
+                output.write("# Unclaimed *VERS tables: " + join(versTables));
+                output.newLine();
+
+                for( String release : unmapped ) {
+                    output.write("#" + release + "|" + release + "||||");
+                    output.newLine();
+                }
+            }
+
+            output.close();
+
+            if( ! tmp.renameTo(file) && ! (file.delete() && tmp.renameTo(file)) ) {
+                throw new IOException("Failed to rename " + tmp);
+            }
+        }
+        catch( IOException ioe ) {
+            System.out.println( "WARNING: Failed to save " + file + ". The products will be discovered again on the next run." );
+        }
+    }
+
+    // Read the first column of a query's rows, skipping nulls
+    private static List<String> readColumn(Connection connection, String query, int queryTimeout, String instance, String name,
+                                           RunMetrics metrics) throws SQLException {
+        long started = System.nanoTime();
+        Statement statement = connection.createStatement();
+        statement.setQueryTimeout(queryTimeout);
+        ResultSet result = statement.executeQuery(query);
+
+        if( metrics != null ) {
+            result = metrics.watch(result, instance, "*", name, started, statement.getFetchSize());
+        }
+
+        List<String> values = new ArrayList<String>();
+
+        while( result.next() ) {
+            String value = result.getString(1);
+
+            if( value != null ) {
+                values.add(value.trim());
+            }
+        }
+
+        result.close();
+        statement.close();
+
+        return values;
+    }
+
+    // The names of the *VERS tables the connection can see, from the database metadata
+    private static List<String> readVersTables(Connection connection, String instance, RunMetrics metrics) throws SQLException {
+        long started = System.nanoTime();
+        ResultSet result = connection.getMetaData().getTables(null, null, "%VERS", new String[] { "TABLE", "SYNONYM" });
+
+        if( metrics != null ) {
+            result = metrics.watch(result, instance, "*", "vers_tables", started, 1);
+        }
+
+        List<String> tables = new ArrayList<String>();
+
+        while( result.next() ) {
+            String table = result.getString("TABLE_NAME");
+
+            if( PreparedQueries.VERS_TABLE.matcher(table).matches() ) {
+                tables.add(table);
+            }
+        }
+
+        result.close();
+
+        return tables;
+    }
+
+    /*
+     * Check whether an application name looks like the ESM product with the given key (the
+     * product name after its BNR_ or BXE_ prefix, normalized), e.g., etrans and eTranscript.
+     * Short keys are too ambiguous to match.
+     */
+    private static boolean matches(String key, String application) {
+        String name = normalize(application);
+
+        if( name.startsWith("banner") ) {
+            name = name.substring(6);
+        }
+
+        return key.length() >= 4 && name.startsWith(key);
+    }
+
+    // Lowercase, with only the letters and digits
+    private static String normalize(String s) {
+        return s.toLowerCase().replaceAll("[^a-z0-9]", "");
+    }
+
+    private static String join(Collection<String> values) {
+        return values.isEmpty() ? "(none)" : join(values, ", ");
+    }
+
+    private static String join(Collection<String> values, String separator) {
+        StringBuilder joined = new StringBuilder();
+
+        for( String value : values ) {
+            if( joined.length() > 0 ) {
+                joined.append(separator);
+            }
+
+            joined.append(value);
+        }
+
+        return joined.toString();
+    }
+}
@@ -0,0 +1,287 @@
+package edu.utica.banner;
+
+import java.io.*;
+import java.util.*;
+
+/*
+ * Writes the pending releases in one of the output_format formats:
+ *
+ *   table - a table with one column per Banner instance, split into pages if the instances
+ *           don't fit within page_width (the default)
+ *   csv   - one row per pending release, with the product, ESM name, instance, and release,
+ *           and one row with the error for each instance which couldn't be scanned
+ *   json  - JSON lines, with one object per product and instance listing its pending releases
+ *
+ * The report is written with begin(), then product() for each product in order, and then
+ * end().  Products can be written as soon as every instance has finished them, and the writer
+ * is flushed after each one, so a large report is streamed instead of being built in memory.
+ * Column widths and separator lines are worked out once, in the constructor.
+ *
+ * An instance which couldn't be scanned is shown with its error (e.g., "timed out") in place
+ * of the products it didn't finish.
+ */
+abstract class ReportFormat {
+    // The names of the formats, as used in output_format
+    static final List<String> NAMES = Arrays.asList("table", "csv", "json");
+
+    static final String NEWLINE = System.getProperty("line.separator");
+
+    protected final Writer out;
+    protected final PendingBannerReleases.PendingMatrix matrix;
+
+    ReportFormat(Writer out, PendingBannerReleases.PendingMatrix matrix) {
+        this.out = out;
+        this.matrix = matrix;
+    }
+
+    /*
+     * Create the named format.  width is the width of the product column in the table.
+     */
+    static ReportFormat create(String name, Writer out, PendingBannerReleases.PendingMatrix matrix, int width, int pageWidth) {
+        if( name.equals("csv") ) {
+            return new Csv(out, matrix);
+        }
+        else if( name.equals("json") ) {
+            return new JsonLines(out, matrix);
+        }
+        else if( name.equals("table") ) {
+            return new Table(out, matrix, width, pageWidth);
+        }
+
+        throw new IllegalArgumentException("Unknown output format '" + name + "'");
+    }
+
+    // Write anything which comes before the first product
+    abstract void begin() throws IOException;
+
+    // Write products[product] and flush it
+    abstract void product(int product) throws IOException;
+
+    // Write anything which comes after the last product, and flush
+    void end() throws IOException {
+        out.flush();
+    }
+
+    /*
+     * The table, with the same layout as earlier versions.  Only the first page can be
+     * written as products are finished; any further pages are written by end().
+     */
+    static final class Table extends ReportFormat {
+        private final int width;            // Width of the product column
+        private final int perPage;          // Number of instance columns on each page
+        private final String[] headers;     // [page] => the header, including the separator lines
+        private final String[] separators;  // [page] => the separator line
+
+        Table(Writer out, PendingBannerReleases.PendingMatrix matrix, int width, int pageWidth) {
+            super(out, matrix);
+            this.width = width;
+            this.perPage = Math.max(1, (pageWidth - (width + 4)) / (PendingBannerReleases.COLUMN_WIDTH + 3));
+
+            int instances = matrix.instances.length;
+            int pages = (instances + perPage - 1) / perPage;
+
+            headers = new String[pages];
+            separators = new String[pages];
+
+            for( int page = 0; page < pages; page++ ) {
+                int last = Math.min(instances, (page + 1) * perPage);
+
+                StringBuilder separator = new StringBuilder("+");
+                repeat(separator, '-', width + 2).append('+');
+
+                for( int x = page * perPage; x < last; x++ ) {
+                    repeat(separator, '-', PendingBannerReleases.COLUMN_WIDTH + 2).append('+');
+                }
+
+                separator.append(NEWLINE);
+                separators[page] = separator.toString();
+
+                StringBuilder header = new StringBuilder(separator).append("| ");
+                pad(header, "Product", width).append(" |");
+
+                for( int x = page * perPage; x < last; x++ ) {
+                    pad(header.append(' '), matrix.instances[x], PendingBannerReleases.COLUMN_WIDTH).append(" |");
+                }
+
+                headers[page] = header.append(NEWLINE).append(separator).toString();
+            }
+        }
+
+        void begin() throws IOException {
+            out.write(headers[0]);
+        }
+
+        void product(int product) throws IOException {
+            writeRows(0, product);
+            out.flush();
+        }
+
+        void end() throws IOException {
+            for( int page = 1; page < headers.length; page++ ) {
+                out.write(NEWLINE);
+                out.write(headers[page]);
+
+                for( int i = matrix.first; i < matrix.last; i++ ) {
+                    writeRows(page, i);
+                }
+            }
+
+            out.flush();
+        }
+
+        // Write a product's rows on a page, with one line for each pending release
+        private void writeRows(int page, int product) throws IOException {
+            int first = page * perPage;
+            int last = Math.min(matrix.instances.length, first + perPage);
+            int rows = 1;
+
+            for( int x = first; x < last; x++ ) {
+                rows = Math.max(rows, matrix.pendingCount(x, product));
+            }
+
+            StringBuilder line = new StringBuilder();
+
+            for( int z = 0; z < rows; z++ ) {
+                line.setLength(0);
+                line.append("| ");
+                pad(line, z == 0 ? matrix.products[product][PendingBannerReleases.PRODUCT] : "", width).append(" |");
+
+                for( int x = first; x < last; x++ ) {
+                    String error = z == 0 ? matrix.error(x, product) : null;
+                    String release = error != null ? "(" + error + ")"
+                                     : z < matrix.pendingCount(x, product) ? matrix.pending(x, product, z) : "";
+                    pad(line.append(' '), release, PendingBannerReleases.COLUMN_WIDTH).append(" |");
+                }
+
+                out.append(line).write(NEWLINE);
+            }
+
+            out.write(separators[page]);
+        }
+
+        // Append s, left-justified in a field of the given width (longer values aren't cut)
+        private static StringBuilder pad(StringBuilder line, String s, int width) {
+            return repeat(line.append(s), ' ', width - s.length());
+        }
+
+        private static StringBuilder repeat(StringBuilder line, char c, int count) {
+            for( int n = 0; n < count; n++ ) {
+                line.append(c);
+            }
+
+            return line;
+        }
+    }
+
+    /*
+     * CSV, with a header row and one row per pending release.
+     */
+    static final class Csv extends ReportFormat {
+        Csv(Writer out, PendingBannerReleases.PendingMatrix matrix) {
+            super(out, matrix);
+        }
+
+        void begin() throws IOException {
+            out.write("product,release,instance,version,error" + NEWLINE);
+        }
+
+        void product(int product) throws IOException {
+            String[] p = matrix.products[product];
+            String prefix = field(p[PendingBannerReleases.PRODUCT]) + "," + field(p[PendingBannerReleases.RELEASE]) + ",";
+
+            for( int x = 0; x < matrix.instances.length; x++ ) {
+                String instance = field(matrix.instances[x]);
+                String error = matrix.error(x, product);
+
+                if( error != null ) {
+                    out.append(prefix).append(instance).append(",,").append(field(error)).write(NEWLINE);
+                    continue;
+                }
+
+                for( int z = 0; z < matrix.pendingCount(x, product); z++ ) {
+                    out.append(prefix).append(instance).append(',').append(field(matrix.pending(x, product, z))).append(',').write(NEWLINE);
+                }
+            }
+
+            out.flush();
+        }
+
+        // Quote a field if it contains a comma, quote, or line break
+        private static String field(String s) {
+            for( int i = 0; i < s.length(); i++ ) {
+                char c = s.charAt(i);
+
+                if( c == ',' || c == '"' || c == '\n' || c == '\r' ) {
+                    return '"' + s.replace("\"", "\"\"") + '"';
+                }
+            }
+
+            return s;
+        }
+    }
+
+    /*
+     * JSON lines, with one object per product and instance, e.g.:
+     *
+     *   {"product":"Banner Student","release":"BNR_STU","instance":"PROD","pending":["9.3.5"]}
+     *   {"product":"Banner Student","release":"BNR_STU","instance":"TEST","pending":null,"error":"timed out"}
+     */
+    static final class JsonLines extends ReportFormat {
+        JsonLines(Writer out, PendingBannerReleases.PendingMatrix matrix) {
+            super(out, matrix);
+        }
+
+        void begin() {
+        }
+
+        void product(int product) throws IOException {
+            String[] p = matrix.products[product];
+            String prefix = "{\"product\":" + quote(p[PendingBannerReleases.PRODUCT])
+                            + ",\"release\":" + quote(p[PendingBannerReleases.RELEASE]) + ",\"instance\":";
+            StringBuilder line = new StringBuilder();
+
+            for( int x = 0; x < matrix.instances.length; x++ ) {
+                line.setLength(0);
+                line.append(prefix).append(quote(matrix.instances[x]));
+
+                String error = matrix.error(x, product);
+
+                if( error != null ) {
+                    out.append(line.append(",\"pending\":null,\"error\":").append(quote(error)).append('}')).write(NEWLINE);
+                    continue;
+                }
+
+                line.append(",\"pending\":[");
+
+                for( int z = 0; z < matrix.pendingCount(x, product); z++ ) {
+                    line.append(z > 0 ? "," : "").append(quote(matrix.pending(x, product, z)));
+                }
+
+                out.append(line.append("]}")).write(NEWLINE);
+            }
+
+            out.flush();
+        }
+    }
+
+    // A string as a JSON string literal
+    static String quote(String s) {
+        StringBuilder quoted = new StringBuilder(s.length() + 2).append('"');
+
+        for( int i = 0; i < s.length(); i++ ) {
+            char c = s.charAt(i);
+
+            if( c == '"' || c == '\\' ) {
+                quoted.append('\\').append(c);
+            }
+            else if( c < 0x20 ) {
+                quoted.append(String.format("\\u%04x", (int) c));
+            }
+            else {
+                quoted.append(c);
+            }
+        }
+
+        return quoted.append('"').toString();
+    }
+}
@@ -0,0 +1,268 @@
+package edu.utica.banner;
+
+import java.io.*;
+import java.lang.reflect.*;
+import java.sql.*;
+import java.util.*;
+
+/*
+ * Timing and query metrics for one run, collected when the metrics config parameter is on.
+ *
+ * Two kinds of measurement are recorded:
+ *
+ *   phases  - the wall time of each step of the run (connecting, loading the ESM releases,
+ *             scanning an instance, writing the report), with the instance it was for
+ *   queries - for each instance, product, and query: the number of executions, wall time
+ *             (from execution until the result set is closed), rows fetched, round trips,
+ *             and bytes decoded (the length of every string read from the results)
+ *
+ * Round trips are estimated from the rows and the fetch size, since JDBC doesn't report
+ * them: the first fetch comes back with the execution, and each further fetch_size rows
+ * takes another.  Queries which aren't about one product are recorded under "*".
+ *
+ * At the end of the run a summary is printed and every measurement is appended to the
+ * metrics_file as JSON lines, tagged with the time the run started.  If the JVM supports
+ * Java Flight Recorder, each measurement is also committed as a JFR event (see JfrEvents),
+ * so it shows up in any recording which is running.
+ */
+final class RunMetrics {
+    /*
+     * Somewhere to send each measurement as it is recorded.  Implemented by JfrEvents,
+     * which is compiled separately because the JFR API needs Java 11.
+     */
+    interface Events {
+        void phase(String name, String instance, long nanos);
+        void query(String instance, String product, String query, long nanos, long rows, long roundTrips, long bytes);
+    }
+
+    // A phase, in the order it finished
+    private static final class Phase {
+        final String name;
+        final String instance;
+        final long nanos;
+
+        Phase(String name, String instance, long nanos) {
+            this.name = name;
+            this.instance = instance;
+            this.nanos = nanos;
+        }
+    }
+
+    // The totals for one instance, product, and query, or for a group of them
+    private static final class Totals {
+        final String label;     // How the totals are shown in the summary
+        final String instance;
+        final String product;
+        final String query;
+        long executions;
+        long nanos;
+        long rows;
+        long roundTrips;
+        long bytes;
+
+        Totals(String label, String instance, String product, String query) {
+            this.label = label;
+            this.instance = instance;
+            this.product = product;
+            this.query = query;
+        }
+
+        void add(long executions, long nanos, long rows, long roundTrips, long bytes) {
+            this.executions += executions;
+            this.nanos += nanos;
+            this.rows += rows;
+            this.roundTrips += roundTrips;
+            this.bytes += bytes;
+        }
+    }
+
+    private final long started = System.currentTimeMillis();
+    private final List<Phase> phases = new ArrayList<Phase>();
+    private final Map<String,Totals> queries = new LinkedHashMap<String,Totals>();
+    private final Events events = loadEvents();
+
+    /*
+     * Record a phase which started at startNanos (from System.nanoTime()) and has just
+     * finished.  instance may be null for a phase of the whole run.
+     */
+    synchronized void phase(String name, String instance, long startNanos) {
+        long nanos = System.nanoTime() - startNanos;
+        phases.add(new Phase(name, instance, nanos));
+
+        if( events != null ) {
+            events.phase(name, instance, nanos);
+        }
+    }
+
+    /*
+     * The wall time in nanoseconds of every phase with the given name, in the order they finished.
+     */
+    synchronized List<Long> phaseTimes(String name) {
+        List<Long> times = new ArrayList<Long>();
+
+        for( Phase p : phases ) {
+            if( p.name.equals(name) ) {
+                times.add(p.nanos);
+            }
+        }
+
+        return times;
+    }
+
+    /*
+     * Record one execution of a query.
+     */
+    synchronized void query(String instance, String product, String query, long nanos, long rows, long roundTrips, long bytes) {
+        String key = instance + "\u0000" + product + "\u0000" + query;
+        Totals totals = queries.get(key);
+
+        if( totals == null ) {
+            totals = new Totals(instance + " / " + product + " / " + query, instance, product, query);
+            queries.put(key, totals);
+        }
+
+        totals.add(1, nanos, rows, roundTrips, bytes);
+
+        if( events != null ) {
+            events.query(instance, product, query, nanos, rows, roundTrips, bytes);
+        }
+    }
+
+    /*
+     * Wrap the result set of a query which was executed at startNanos, so its rows and the
+     * strings read from it are counted, and the query is recorded when it is closed.
+     */
+    ResultSet watch(final ResultSet result, final String instance, final String product, final String query,
+                    final long startNanos, final int fetchSize) {
+        InvocationHandler counter = new InvocationHandler() {
+            private long rows;
+            private long bytes;
+            private boolean closed;
+
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                Object value;
+
+                try {
+                    value = method.invoke(result, args);
+                }
+                catch( InvocationTargetException ite ) {
+                    throw ite.getCause();
+                }
+
+                String name = method.getName();
+
+                if( name.equals("next") && Boolean.TRUE.equals(value) ) {
+                    rows++;
+                }
+                else if( name.equals("getString") && value != null ) {
+                    bytes += ((String) value).length();
+                }
+                else if( name.equals("close") && ! closed ) {
+                    closed = true;
+                    query(instance, product, query, System.nanoTime() - startNanos, rows, rows / Math.max(1, fetchSize) + 1, bytes);
+                }
+
+                return value;
+            }
+        };
+
+        return (ResultSet) Proxy.newProxyInstance(RunMetrics.class.getClassLoader(), new Class<?>[] { ResultSet.class }, counter);
+    }
+
+    /*
+     * Print the phases, the totals for each instance and product, and the slowest queries.
+     */
+    synchronized void printSummary(PrintStream out) {
+        out.println("Run metrics:");
+        out.println();
+        out.println(String.format("  %-12s %-20s %10s", "Phase", "Instance", "Time (ms)"));
+
+        for( Phase p : phases ) {
+            out.println(String.format("  %-12s %-20s %10.1f", p.name, p.instance != null ? p.instance : "", p.nanos / 1e6));
+        }
+
+        Map<String,Totals> byInstance = new TreeMap<String,Totals>();
+        Map<String,Totals> byProduct = new TreeMap<String,Totals>();
+
+        for( Totals t : queries.values() ) {
+            group(byInstance, t.instance).add(t.executions, t.nanos, t.rows, t.roundTrips, t.bytes);
+            group(byProduct, t.product).add(t.executions, t.nanos, t.rows, t.roundTrips, t.bytes);
+        }
+
+        printTotals(out, "Instance", 20, byInstance.values());
+        printTotals(out, "Product", 20, byProduct.values());
+
+        // The ten slowest queries
+        List<Totals> slowest = new ArrayList<Totals>(queries.values());
+
+        Collections.sort(slowest, new Comparator<Totals>() {
+            public int compare(Totals a, Totals b) {
+                return Long.compare(b.nanos, a.nanos);
+            }
+        });
+
+        printTotals(out, "Slowest queries", 60, slowest.subList(0, Math.min(10, slowest.size())));
+    }
+
+    /*
+     * Append every measurement to a file as JSON lines.
+     */
+    synchronized void write(File file) throws IOException {
+        String run = ReportFormat.quote(java.time.Instant.ofEpochMilli(started).toString());
+        BufferedWriter out = new BufferedWriter(new FileWriter(file, true));
+
+        for( Phase p : phases ) {
+            out.write("{\"run\":" + run + ",\"type\":\"phase\",\"phase\":" + ReportFormat.quote(p.name)
+                      + ",\"instance\":" + (p.instance != null ? ReportFormat.quote(p.instance) : "null")
+                      + ",\"ms\":" + millis(p.nanos) + "}");
+            out.newLine();
+        }
+
+        for( Totals t : queries.values() ) {
+            out.write("{\"run\":" + run + ",\"type\":\"query\",\"instance\":" + ReportFormat.quote(t.instance)
+                      + ",\"product\":" + ReportFormat.quote(t.product) + ",\"query\":" + ReportFormat.quote(t.query)
+                      + ",\"executions\":" + t.executions + ",\"ms\":" + millis(t.nanos)
+                      + ",\"rows\":" + t.rows + ",\"round_trips\":" + t.roundTrips + ",\"bytes\":" + t.bytes + "}");
+            out.newLine();
+        }
+
+        out.close();
+    }
+
+    // The totals in a group, created the first time the group is seen
+    private static Totals group(Map<String,Totals> groups, String name) {
+        Totals totals = groups.get(name);
+
+        if( totals == null ) {
+            totals = new Totals(name, null, null, null);
+            groups.put(name, totals);
+        }
+
+        return totals;
+    }
+
+    private static void printTotals(PrintStream out, String title, int width, Collection<Totals> rows) {
+        out.println();
+        out.println(String.format("  %-" + width + "s %6s %10s %8s %6s %10s", title, "Execs", "Time (ms)", "Rows", "Trips", "Bytes"));
+
+        for( Totals t : rows ) {
+            out.println(String.format("  %-" + width + "s %6d %10.1f %8d %6d %10d",
+                                      t.label, t.executions, t.nanos / 1e6, t.rows, t.roundTrips, t.bytes));
+        }
+    }
+
+    // Nanoseconds as milliseconds for the metrics file, which always uses a decimal point
+    private static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1e6);
+    }
+
+    // The JFR events, or null if this JVM (or build) doesn't have them
+    private static Events loadEvents() {
+        try {
+            return (Events) Class.forName("edu.utica.banner.JfrEvents").getDeclaredConstructor().newInstance();
+        }
+        catch( Exception | LinkageError e ) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package edu.utica.banner;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.*;
+
+import org.h2.store.fs.*;
+
+/*
+ * The "snapshot:" H2 file system, e.g. jdbc:h2:snapshot:/u01/adminApp/ESMAdminProdDb.
+ *
+ * Files are opened read-only and without an OS file lock, so the database can be read while
+ * ESM has it open.  The length of each file is fixed when it is opened, and every block is
+ * copied into memory the first time it is read and served from there afterwards.  Only the
+ * blocks H2 actually needs to answer our queries are read, instead of copying the whole file.
+ *
+ * This is only safe because of how MVStore (.mv.db) files are written, and only for a short
+ * read.  ESM does overwrite parts of the file: the store header at the start is rewritten on
+ * every commit, and new chunks are written into the space of chunks which are no longer used,
+ * as well as at the end.  What MVStore does guarantee is that a chunk which was live when our
+ * snapshot read the header isn't overwritten until the store's retention time (45 seconds by
+ * default) after ESM stopped using it, which is much longer than it takes to read the RELEASE
+ * table.  Compacting the file when ESM closes the database can move chunks sooner.
+ *
+ * If a chunk is overwritten anyway, the read will most likely fail rather than return wrong
+ * data: H2 checks the store header and each chunk's footer against their checksums, and each
+ * page's chunk, offset, and length against a check value, and reports a mismatch as a corrupt
+ * file.  The page contents themselves have no checksum, so this isn't a guarantee either.
+ * There is no automatic retry; a run which fails this way should be run again, and copy mode
+ * is the one to use where that isn't good enough.
+ *
+ * H2 creates instances of this class by reflection, so it must be public.
+ */
+public final class SnapshotFilePath extends FilePathWrapper {
+    // Size of each block copied from the live file
+    static final int BLOCK_SIZE = 4096;
+
+    // Make the snapshot: prefix available to H2 connection URLs
+    static void register() {
+        FilePath.register(new SnapshotFilePath());
+    }
+
+    public String getScheme() {
+        return "snapshot";
+    }
+
+    public FileChannel open(String mode) throws IOException {
+        if( ! mode.equals("r") ) {
+            // The database is always opened with ACCESS_MODE_DATA=r, so H2 should never ask for this
+            throw new IOException("The snapshot file system is read-only: " + name);
+        }
+
+        return new SnapshotFileChannel(unwrap().toRealPath().toString());
+    }
+
+    public boolean canWrite() {
+        return false;
+    }
+
+    public boolean setReadOnly() {
+        return true;
+    }
+
+    public OutputStream newOutputStream(boolean append) throws IOException {
+        throw new IOException("The snapshot file system is read-only: " + name);
+    }
+
+    public boolean createFile() {
+        return false;
+    }
+
+    public void createDirectory() {
+        throw new UnsupportedOperationException("The snapshot file system is read-only: " + name);
+    }
+
+    public void delete() {
+        throw new UnsupportedOperationException("The snapshot file system is read-only: " + name);
+    }
+
+    public void moveTo(FilePath newName, boolean atomicReplace) {
+        throw new UnsupportedOperationException("The snapshot file system is read-only: " + name);
+    }
+
+    /*
+     * A read-only channel over a copy-on-read snapshot of a file.
+     */
+    static final class SnapshotFileChannel extends FileBase {
+        private final FileChannel live;
+        private final long size;
+        private final Map<Long,byte[]> blocks = new HashMap<Long,byte[]>();
+        private long position = 0;
+
+        SnapshotFileChannel(String fileName) throws IOException {
+            // Opening a RandomAccessFile for reading doesn't take a lock
+            live = new RandomAccessFile(fileName, "r").getChannel();
+            size = live.size();
+        }
+
+        public long size() {
+            return size;
+        }
+
+        public long position() {
+            return position;
+        }
+
+        public FileChannel position(long newPosition) {
+            position = newPosition;
+            return this;
+        }
+
+        public synchronized int read(ByteBuffer dst) throws IOException {
+            int read = read(dst, position);
+
+            if( read > 0 ) {
+                position += read;
+            }
+
+            return read;
+        }
+
+        public synchronized int read(ByteBuffer dst, long pos) throws IOException {
+            if( pos >= size ) {
+                return -1;
+            }
+
+            int read = 0;
+
+            while( dst.hasRemaining() && pos < size ) {
+                byte[] block = block(pos / BLOCK_SIZE);
+                int offset = (int) (pos % BLOCK_SIZE);
+                int length = (int) Math.min(Math.min(dst.remaining(), block.length - offset), size - pos);
+
+                dst.put(block, offset, length);
+                pos += length;
+                read += length;
+            }
+
+            return read;
+        }
+
+        // Get a block of the snapshot, copying it from the live file the first time it is read
+        private byte[] block(long index) throws IOException {
+            byte[] block = blocks.get(index);
+
+            if( block == null ) {
+                long start = index * BLOCK_SIZE;
+                block = new byte[(int) Math.min(BLOCK_SIZE, size - start)];
+                ByteBuffer buffer = ByteBuffer.wrap(block);
+
+                while( buffer.hasRemaining() ) {
+                    if( live.read(buffer, start + buffer.position()) < 0 ) {
+                        throw new EOFException("The live file is shorter than the snapshot");
+                    }
+                }
+
+                blocks.put(index, block);
+            }
+
+            return block;
+        }
+
+        public int write(ByteBuffer src) {
+            throw new NonWritableChannelException();
+        }
+
+        public int write(ByteBuffer src, long pos) {
+            throw new NonWritableChannelException();
+        }
+
+        public FileChannel truncate(long newSize) {
+            throw new NonWritableChannelException();
+        }
+
+        public void force(boolean metaData) {
+        }
+
+        // Nothing is ever written, so a lock is never needed (and ESM already holds one)
+        public FileLock tryLock(long position, long size, boolean shared) {
+            return new FileLock(this, position, size, shared) {
+                private boolean valid = true;
+
+                public boolean isValid() {
+                    return valid && SnapshotFileChannel.this.isOpen();
+                }
+
+                public void release() {
+                    valid = false;
+                }
+            };
+        }
+
+        protected void implCloseChannel() throws IOException {
+            live.close();
+            blocks.clear();
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package edu.utica.banner;
+
+import jdk.jfr.*;
+
+/*
+ * Commits each run metric as a Java Flight Recorder event, so the phases and queries of a
+ * run can be seen in a recording (e.g., java -XX:StartFlightRecording=filename=run.jfr ...)
+ * alongside the JVM's own events.
+ *
+ * The JFR API needs Java 11, so this is compiled separately from the rest of the program,
+ * by the jfr profile in app/pom.xml.  RunMetrics loads it by name, and goes without events
+ * if it is missing or can't be loaded.
+ */
+final class JfrEvents implements RunMetrics.Events {
+    @Name("edu.utica.banner.Phase")
+    @Label("Pending Banner Releases Phase")
+    @Category("Pending Banner Releases")
+    static final class PhaseEvent extends Event {
+        @Label("Phase")
+        String phase;
+
+        @Label("Instance")
+        String instance;
+
+        @Label("Wall Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long wallTime;
+    }
+
+    @Name("edu.utica.banner.Query")
+    @Label("Pending Banner Releases Query")
+    @Category("Pending Banner Releases")
+    static final class QueryEvent extends Event {
+        @Label("Instance")
+        String instance;
+
+        @Label("Product")
+        String product;
+
+        @Label("Query")
+        String query;
+
+        @Label("Wall Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long wallTime;
+
+        @Label("Rows")
+        long rows;
+
+        @Label("Round Trips")
+        long roundTrips;
+
+        @Label("Bytes Decoded")
+        @DataAmount
+        long bytes;
+    }
+
+    public void phase(String name, String instance, long nanos) {
+        PhaseEvent event = new PhaseEvent();
+
+        if( event.isEnabled() ) {
+            event.phase = name;
+            event.instance = instance;
+            event.wallTime = nanos;
+            event.commit();
+        }
+    }
+
+    public void query(String instance, String product, String query, long nanos, long rows, long roundTrips, long bytes) {
+        QueryEvent event = new QueryEvent();
+
+        if( event.isEnabled() ) {
+            event.instance = instance;
+            event.product = product;
+            event.query = query;
+            event.wallTime = nanos;
+            event.rows = rows;
+            event.roundTrips = roundTrips;
+            event.bytes = bytes;
+            event.commit();
+        }
+    }
+}
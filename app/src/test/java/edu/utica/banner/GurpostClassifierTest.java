@@ -0,0 +1,128 @@
+package edu.utica.banner;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+import java.util.regex.*;
+
+import org.junit.Test;
+
+import edu.utica.banner.PendingBannerReleases.GurpostClassifier;
+
+/*
+ * Checks that GurpostClassifier finds exactly the codes whose gurpost_patch_by_product query,
+ * LIKE 'pcr-%_<code>%', would have returned a patch, including codes which overlap (one code
+ * inside another, or a code shared by more than one product).
+ */
+public class GurpostClassifierTest {
+    // The codes of the built-in products, with a few which are prefixes of them
+    private static List<String> codes() {
+        Set<String> codes = new LinkedHashSet<String>();
+
+        for( String[] product : PendingBannerReleases.BUILT_IN_PRODUCTS ) {
+            codes.add(product[PendingBannerReleases.GURPOST]);
+        }
+
+        codes.addAll(Arrays.asList("bw", "st", "s", "fs", "ssb"));
+        return new ArrayList<String>(codes);
+    }
+
+    /*
+     * The codes LIKE 'pcr-%_<code>%' matches a patch for: % is any text and _ any one
+     * character, so the code has to start at the sixth character or later.  An empty code
+     * was never queried, so it matches nothing.
+     */
+    private static Set<String> likeMatches(String patch, List<String> codes) {
+        Set<String> matches = new HashSet<String>();
+
+        for( String code : codes ) {
+            if( code.length() > 0 && Pattern.compile("pcr-.+" + Pattern.quote(code) + ".*", Pattern.DOTALL).matcher(patch).matches() ) {
+                matches.add(code);
+            }
+        }
+
+        return matches;
+    }
+
+    private static Set<String> classified(GurpostClassifier classifier, String patch) {
+        Set<String> found = new HashSet<String>();
+
+        for( int m = 0, n = classifier.classify(patch); m < n; m++ ) {
+            assertTrue(patch + " gave " + classifier.code(m) + " twice", found.add(classifier.code(m)));
+        }
+
+        return found;
+    }
+
+    @Test
+    public void matchesLikeOnEdgeCases() {
+        List<String> codes = codes();
+        GurpostClassifier classifier = new GurpostClassifier(codes);
+        String[] patches = {
+            "pcr-000163330_stu8170002",
+            "pcr-000170112_fss9030101",     // Shared by two products
+            "pcr-stu",                      // The code at the fifth character isn't matched
+            "pcr-xstu",                     // but at the sixth is
+            "pcr-_stu",
+            "pcr-",
+            "pcr-x",
+            "PCR-000163330_stu8170002",     // LIKE is case sensitive
+            "xpcr-000163330_stu8170002",
+            "000163330_stu8170002",
+            "pcr-000163330_bwsbwabwg",      // bws, bwa, and bwg, which all contain "bw"
+            "pcr-000163330_bsss9",          // "s" as well as "bsss"
+            "pcr-000163330_regssb9",
+            "pcr-000163330_appNav",
+            "pcr-000163330_appnav",
+            "pcr-000163330_cxedb\u00e9",    // Non-ASCII characters can't start or continue a code
+            "pcr-\u00e9stu",
+            "pcr-000163330_stustustu",
+            "",
+        };
+
+        for( String patch : patches ) {
+            assertEquals(patch, likeMatches(patch, codes), classified(classifier, patch));
+        }
+
+        assertEquals(0, classifier.classify(null));
+    }
+
+    @Test
+    public void sharedCodeIsFoundOnce() {
+        GurpostClassifier classifier = new GurpostClassifier(Arrays.asList("fss", "fss", "fin"));
+
+        assertEquals(1, classifier.classify("pcr-000170112_fss9030101"));
+        assertEquals("fss", classifier.code(0));
+    }
+
+    @Test
+    public void ignoresCodesItCanNeverFind() {
+        GurpostClassifier classifier = new GurpostClassifier(Arrays.asList("", "st\u00fc", "stu"));
+
+        assertEquals(Collections.singleton("stu"), classified(classifier, "pcr-000163330_st\u00fcstu"));
+    }
+
+    @Test
+    public void matchesLikeOnRandomPatches() {
+        List<String> codes = codes();
+        GurpostClassifier classifier = new GurpostClassifier(codes);
+        Random random = new Random(20261016);
+        String alphabet = "pcr-_0189stufbwsaxeg";
+
+        for( int n = 0; n < 100000; n++ ) {
+            StringBuilder patch = new StringBuilder(random.nextInt(8) > 0 ? "pcr-" : "");
+
+            for( int i = random.nextInt(16); i > 0; i-- ) {
+                // Often a whole code, so codes overlap
+                if( random.nextInt(3) == 0 ) {
+                    patch.append(codes.get(random.nextInt(codes.size())));
+                }
+                else {
+                    patch.append(alphabet.charAt(random.nextInt(alphabet.length())));
+                }
+            }
+
+            assertEquals(patch.toString(), likeMatches(patch.toString(), codes), classified(classifier, patch.toString()));
+        }
+    }
+}
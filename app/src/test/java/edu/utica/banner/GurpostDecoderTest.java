@@ -0,0 +1,144 @@
+package edu.utica.banner;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import org.junit.Test;
+
+import edu.utica.banner.PendingBannerReleases.GurpostDecoder;
+import edu.utica.banner.PendingBannerReleases.VersionKeys;
+
+/*
+ * Checks that GurpostDecoder decodes every patch name exactly as the string handling it
+ * replaced did, and fails to decode exactly the names which made that code throw.
+ */
+public class GurpostDecoderTest {
+    /*
+     * The GURPOST decoding from before version 1.5.0 (as also kept in the benchmarks'
+     * Legacy class).  It throws for a name with nothing after its first underscore, or
+     * nothing left once the product code is removed.
+     */
+    static String legacyDecode(String patch, String code) {
+        StringBuilder release = new StringBuilder();
+
+        String[] patchArr= patch.split("_");
+        String tmp = patchArr[1].replace(code, "");
+        String top = tmp.substring(0,1);
+        String rev = tmp.substring(1);
+
+        release.append(top);
+
+        for( int j = 0; j < (rev.length()-1); j+=2 ) {
+            String num = rev.substring(j,j+2);
+
+            if( num.startsWith("0") ) {
+                num = num.replaceFirst("0","");
+            }
+
+            release.append(".").append(num);
+        }
+
+        return release.toString();
+    }
+
+    // Decode with both, and check that they agree
+    private static void check(GurpostDecoder decoder, String patch, String code) {
+        String expected;
+
+        try {
+            expected = legacyDecode(patch, code);
+        }
+        catch( RuntimeException e ) {
+            expected = null;
+        }
+
+        boolean decoded = decoder.decode(patch, code);
+
+        if( expected == null ) {
+            assertFalse("Decoded " + patch + " for " + code + " as " + decoder, decoded);
+        }
+        else {
+            assertTrue("Didn't decode " + patch + " for " + code, decoded);
+            assertEquals(patch + " for " + code, expected, decoder.toString());
+            assertEquals(patch + " for " + code, VersionKeys.key(expected), VersionKeys.key(decoder));
+        }
+    }
+
+    @Test
+    public void decodesTypicalPatches() {
+        GurpostDecoder decoder = new GurpostDecoder();
+
+        decoder.decode("pcr-000163330_stu8170002", "stu");
+        assertEquals("8.17.0.2", decoder.toString());
+
+        decoder.decode("pcr-000170112_fss9030101", "fss");
+        assertEquals("9.3.1.1", decoder.toString());
+    }
+
+    @Test
+    public void matchesLegacyOnEdgeCases() {
+        GurpostDecoder decoder = new GurpostDecoder();
+        String[][] cases = {
+            {"pcr-000163330_stu8170002", "stu"},
+            {"pcr-000163330_stu817000", "stu"},          // An odd character at the end is dropped
+            {"pcr-000163330_stu8000000", "stu"},         // "00" => "0"
+            {"pcr-000163330_stu9101112_extra", "stu"},   // Only up to the second underscore
+            {"pcr-000163330_stu8stu170002", "stu"},      // Every occurrence of the code is removed
+            {"pcr-000163330_ststuu8170002", "stu"},      // Removing the code doesn't make a new one
+            {"pcr-000163330_8170002stu", "stu"},         // The code at the end
+            {"pcr-000163330_stu", "stu"},                // Nothing left once the code is removed
+            {"pcr-000163330_", "stu"},                   // Nothing after the underscore
+            {"pcr-000163330__stu8170002", "stu"},        // An empty field between underscores
+            {"pcr-000163330", "stu"},                    // No underscore
+            {"pcr-000163330_stu8170002", ""},            // No code
+            {"pcr-000163330_bwa8a1b02", "bwa"},          // Letters pass through
+            {"_stu8170002", "stu"},
+            {"pcr-000163330_stu9", "stu"},               // Only the top-level version
+            {"pcr-000163330_stu91", "stu"},
+            {"pcr-000163330_stu912", "stu"},
+            {"pcr-000163330_stu8170002", "st"},          // A code which is part of another
+            {"pcr-000163330_fssfss9030101", "fss"},
+        };
+
+        for( String[] c : cases ) {
+            check(decoder, c[0], c[1]);
+        }
+    }
+
+    @Test
+    public void handlesNull() {
+        assertFalse(new GurpostDecoder().decode(null, "stu"));
+    }
+
+    @Test
+    public void matchesLegacyOnRandomPatches() {
+        GurpostDecoder decoder = new GurpostDecoder();
+        Random random = new Random(20261016);
+        String alphabet = "0123456789__stufbw";
+        String[] codes = { "stu", "fss", "bw", "bwa", "s", "" };
+
+        for( int n = 0; n < 200000; n++ ) {
+            StringBuilder patch = new StringBuilder("pcr-");
+
+            for( int i = random.nextInt(24); i > 0; i-- ) {
+                patch.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+
+            check(decoder, patch.toString(), codes[random.nextInt(codes.length)]);
+        }
+    }
+
+    @Test
+    public void growsItsBufferForLongPatches() {
+        GurpostDecoder decoder = new GurpostDecoder();
+        StringBuilder patch = new StringBuilder("pcr-1_9");
+
+        for( int i = 0; i < 100; i++ ) {
+            patch.append("07");
+        }
+
+        check(decoder, patch.toString(), "stu");
+        check(decoder, "pcr-1_stu8170002", "stu");
+    }
+}
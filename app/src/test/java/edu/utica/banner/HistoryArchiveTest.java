@@ -0,0 +1,128 @@
+package edu.utica.banner;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.text.*;
+import java.util.*;
+
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+
+import edu.utica.banner.PendingBannerReleases.PendingMatrix;
+import edu.utica.banner.PendingBannerReleases.VersionSet;
+
+/*
+ * Checks that the history archive reads back the snapshots which were recorded, and that a
+ * record cut short by a crash is ignored when reading and dropped by the next write.
+ */
+public class HistoryArchiveTest {
+    private static final String[] INSTANCES = { "PROD", "TEST" };
+    private static final long DAY = 86400000L;
+    private static final long T1 = 1790000000000L;
+    private static final long T2 = T1 + DAY;
+    private static final long T3 = T2 + DAY;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /*
+     * A matrix of the built-in products, all with ESM releases 9.3.1 to 9.3.3, where PROD has
+     * the given releases installed and TEST failed before it finished any product.
+     */
+    private static PendingMatrix matrix(String... installed) {
+        String[][] products = PendingBannerReleases.BUILT_IN_PRODUCTS;
+        Map<String,List<String>> esmReleases = new HashMap<String,List<String>>();
+
+        for( String[] product : products ) {
+            esmReleases.put(product[PendingBannerReleases.RELEASE], Arrays.asList("9.3.3", "9.3.1", "9.3.2"));
+        }
+
+        PendingMatrix matrix = new PendingMatrix(0, products.length, INSTANCES, esmReleases);
+        VersionSet versions = new VersionSet();
+        versions.addAll(Arrays.asList(installed));
+
+        for( int i = 0; i < products.length; i++ ) {
+            matrix.install(0, i, versions);
+            matrix.finishProduct(0, i);
+        }
+
+        matrix.fail(1, PendingMatrix.FAILED, null);
+        return matrix;
+    }
+
+    private static String query(File file, String... args) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PrintStream out = new PrintStream(bytes);
+
+        assertEquals(0, HistoryArchive.query(file, Arrays.asList(args), out));
+        out.flush();
+        return bytes.toString();
+    }
+
+    private static String minute(long time) {
+        return new SimpleDateFormat("yyyy-MM-dd HH:mm").format(new Date(time));
+    }
+
+    @Test
+    public void readsBackWhatWasRecorded() throws IOException {
+        File file = new File(folder.getRoot(), "history.pbrh");
+
+        HistoryArchive.record(file, matrix("9.3.1"), T1);
+        HistoryArchive.record(file, matrix("9.3.1", "9.3.2"), T2);
+
+        String history = query(file, "PROD", "Banner Student");
+        assertTrue(history, history.contains("Pending releases of Banner Student on PROD, from " + minute(T1) + " to " + minute(T2) + ":"));
+        assertTrue(history, history.contains(String.format("  %-20s pending from %s until %s (1.0 days)", "9.3.2", minute(T1), minute(T2))));
+        assertTrue(history, history.contains(String.format("  %-20s pending since %s (1.0 days)", "9.3.3", minute(T1))));
+        assertFalse(history, history.contains("9.3.1 "));
+        assertTrue(history, history.contains("(2 snapshots read"));
+
+        // The ESM name finds the product too, and a release matches the releases it starts
+        assertEquals(history, query(file, "PROD", "BNR_STU").replace("BNR_STU", "Banner Student").replaceAll("read in .* ms", ""),
+                     history.replaceAll("read in .* ms", ""));
+        assertFalse(query(file, "PROD", "BNR_STU", "9.3").contains("(none)"));
+
+        // A time range only reads the snapshots in it
+        String day = new SimpleDateFormat("yyyy-MM-dd").format(new Date(T2));
+        assertTrue(query(file, "PROD", "BNR_STU", "--from=" + day).contains("(1 snapshots read"));
+
+        // TEST didn't finish anything, which isn't the same as nothing pending
+        assertTrue(query(file, "TEST", "BNR_STU").contains("No snapshots of BNR_STU on TEST"));
+    }
+
+    @Test
+    public void recoversFromATruncatedRecord() throws IOException {
+        File file = new File(folder.getRoot(), "history.pbrh");
+
+        HistoryArchive.record(file, matrix("9.3.1"), T1);
+        long complete = file.length();
+        HistoryArchive.record(file, matrix("9.3.1", "9.3.2"), T2);
+
+        // Cut the second snapshot short, as a crash while writing it would
+        RandomAccessFile out = new RandomAccessFile(file, "rw");
+        out.setLength(file.length() - 3);
+        out.close();
+
+        String history = query(file, "PROD", "BNR_STU");
+        assertTrue(history, history.contains("(1 snapshots read"));
+        assertTrue(history, history.contains(String.format("  %-20s pending since %s", "9.3.2", minute(T1))));
+
+        // The next write replaces what was left of it
+        HistoryArchive.record(file, matrix("9.3.1", "9.3.2", "9.3.3"), T3);
+        assertTrue(file.length() > complete);
+
+        history = query(file, "PROD", "BNR_STU");
+        assertTrue(history, history.contains("(2 snapshots read"));
+        assertTrue(history, history.contains(String.format("  %-20s pending from %s until %s (2.0 days)", "9.3.2", minute(T1), minute(T3))));
+        assertTrue(history, history.contains(String.format("  %-20s pending from %s until %s (2.0 days)", "9.3.3", minute(T1), minute(T3))));
+    }
+
+    @Test
+    public void missingFileIsEmpty() {
+        File file = new File(folder.getRoot(), "missing.pbrh");
+
+        assertTrue(query(file, "PROD", "BNR_STU").contains("No snapshots of BNR_STU on PROD"));
+        assertFalse(file.exists());
+    }
+}
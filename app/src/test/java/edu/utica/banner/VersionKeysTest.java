@@ -0,0 +1,218 @@
+package edu.utica.banner;
+
+import static org.junit.Assert.*;
+
+import java.math.*;
+import java.util.*;
+import java.util.regex.*;
+
+import org.junit.Test;
+
+import edu.utica.banner.PendingBannerReleases.VersionKeys;
+import edu.utica.banner.PendingBannerReleases.VersionSet;
+
+/*
+ * Checks that comparing packed version keys as unsigned longs gives the same order as
+ * comparing the versions segment by segment, and that versions which can't be packed
+ * (a segment over MAX_SEGMENT, more than MAX_SEGMENTS segments, or anything that isn't a
+ * number) have no key and fall back to text.
+ */
+public class VersionKeysTest {
+    /*
+     * The order keys stand in for: numeric versions segment by segment, with a shorter
+     * version before a longer one it starts (9.10 < 9.10.0).
+     *
+     * Returns:
+     *   The comparison, or null if either version isn't purely numeric
+     */
+    static Integer segmentCompare(String a, String b) {
+        List<BigInteger> x = segments(a);
+        List<BigInteger> y = segments(b);
+
+        if( x == null || y == null ) {
+            return null;
+        }
+
+        for( int i = 0; i < Math.min(x.size(), y.size()); i++ ) {
+            int c = x.get(i).compareTo(y.get(i));
+
+            if( c != 0 ) {
+                return c;
+            }
+        }
+
+        return Integer.compare(x.size(), y.size());
+    }
+
+    private static List<BigInteger> segments(String version) {
+        if( ! version.matches("[0-9]+(\\.[0-9]+)*") ) {
+            return null;
+        }
+
+        List<BigInteger> segments = new ArrayList<BigInteger>();
+
+        for( String s : version.split("\\.") ) {
+            segments.add(new BigInteger(s));
+        }
+
+        return segments;
+    }
+
+    // Whether a version should have a key: numeric, with few enough segments which are small enough
+    private static boolean packable(String version) {
+        List<BigInteger> segments = segments(version);
+
+        if( segments == null || segments.size() > VersionKeys.MAX_SEGMENTS ) {
+            return false;
+        }
+
+        for( BigInteger s : segments ) {
+            if( s.compareTo(BigInteger.valueOf(VersionKeys.MAX_SEGMENT)) > 0 ) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static final String[] EDGE_VERSIONS = {
+        "9", "9.0", "9.9", "9.10", "9.10.0", "9.10.0.0", "10", "09.3", "9.03", "9.3",
+        "8.17.0.2", "8.17.0.10", "9.3.1", "9.3.10", "9.3.2",
+        "0", "0.0.0.0.0.0", "1.2.3.4.5.6", "1.2.3.4.5.7",
+        "1.2.3.4.5.6.7",                                  // Too many segments
+        "1023", "1023.1023.1023.1023.1023.1023",          // The largest segments
+        "1024", "9.1024", "9.3.99999999999",              // A segment too large
+        "9.3.1-beta", "9..3", ".9", "9.", "", "abc", "9.x",
+    };
+
+    @Test
+    public void keysOrderAsSegmentsDo() {
+        for( String a : EDGE_VERSIONS ) {
+            for( String b : EDGE_VERSIONS ) {
+                long ka = VersionKeys.key(a);
+                long kb = VersionKeys.key(b);
+
+                if( ka == VersionKeys.NONE || kb == VersionKeys.NONE ) {
+                    continue;
+                }
+
+                assertEquals(a + " vs " + b, Integer.signum(segmentCompare(a, b)), Integer.signum(VersionKeys.compare(ka, kb)));
+            }
+        }
+    }
+
+    @Test
+    public void onlyPackableVersionsHaveKeys() {
+        for( String v : EDGE_VERSIONS ) {
+            assertEquals(v, packable(v), VersionKeys.key(v) != VersionKeys.NONE);
+        }
+
+        assertEquals(VersionKeys.NONE, VersionKeys.key(null));
+    }
+
+    @Test
+    public void patternMatchesVersionsWithKeys() {
+        Pattern pattern = Pattern.compile(VersionKeys.PATTERN);
+        List<String> versions = new ArrayList<String>(Arrays.asList(EDGE_VERSIONS));
+        versions.addAll(Arrays.asList("0999", "1000", "1019", "1020", "01023", "001024", "1030", "9999", "9.3.1 ", " 9.3.1"));
+
+        for( String v : versions ) {
+            assertEquals(v, VersionKeys.key(v) != VersionKeys.NONE, pattern.matcher(v).find());
+        }
+
+        for( int i = 0; i <= 2000; i++ ) {
+            assertEquals("9." + i, VersionKeys.key("9." + i) != VersionKeys.NONE, pattern.matcher("9." + i).find());
+        }
+    }
+
+    @Test
+    public void keysOrderAsSegmentsDoOnRandomVersions() {
+        Random random = new Random(20261016);
+        String[] versions = new String[2000];
+
+        for( int i = 0; i < versions.length; i++ ) {
+            StringBuilder v = new StringBuilder();
+
+            for( int s = 1 + random.nextInt(VersionKeys.MAX_SEGMENTS); s > 0; s-- ) {
+                v.append(v.length() > 0 ? "." : "").append(random.nextInt(4) == 0 ? random.nextInt(VersionKeys.MAX_SEGMENT + 1) : random.nextInt(12));
+            }
+
+            versions[i] = v.toString();
+        }
+
+        for( int n = 0; n < 200000; n++ ) {
+            String a = versions[random.nextInt(versions.length)];
+            String b = versions[random.nextInt(versions.length)];
+
+            assertEquals(a + " vs " + b, Integer.signum(segmentCompare(a, b)),
+                         Integer.signum(VersionKeys.compare(VersionKeys.key(a), VersionKeys.key(b))));
+        }
+    }
+
+    @Test
+    public void sortPutsKeyedVersionsFirstThenText() {
+        List<String> expected = new ArrayList<String>();
+        List<String> text = new ArrayList<String>();
+
+        for( String v : EDGE_VERSIONS ) {
+            (VersionKeys.key(v) != VersionKeys.NONE ? expected : text).add(v);
+        }
+
+        // Numeric order, with equal numbers (9.3 and 09.3) in text order
+        Collections.sort(expected, new Comparator<String>() {
+            public int compare(String a, String b) {
+                int c = segmentCompare(a, b);
+                return c != 0 ? c : a.compareTo(b);
+            }
+        });
+
+        Collections.sort(text);
+        expected.addAll(text);
+
+        String[] versions = EDGE_VERSIONS.clone();
+        long[] keys = new long[versions.length];
+        Collections.shuffle(Arrays.asList(versions), new Random(1));
+
+        for( int i = 0; i < versions.length; i++ ) {
+            keys[i] = VersionKeys.key(versions[i]);
+        }
+
+        VersionKeys.sort(versions, keys);
+        assertEquals(expected, Arrays.asList(versions));
+
+        for( int i = 0; i < versions.length; i++ ) {
+            assertEquals(VersionKeys.key(versions[i]), keys[i]);
+        }
+
+        List<String> ordered = new ArrayList<String>(Arrays.asList(EDGE_VERSIONS));
+        Collections.sort(ordered, VersionKeys.ORDER);
+        assertEquals(expected, ordered);
+    }
+
+    @Test
+    public void setMatchesNumericallyOrByText() {
+        VersionSet set = new VersionSet();
+        set.add("9.3.01");
+        set.add("9.3.1-beta");
+        set.add("9.3.1024");
+
+        assertTrue(set.contains(VersionKeys.key("9.3.1"), "9.3.1"));
+        assertTrue(set.contains(VersionKeys.key("9.3.1-beta"), "9.3.1-beta"));
+        assertTrue(set.contains(VersionKeys.key("9.3.1024"), "9.3.1024"));
+        assertFalse(set.contains(VersionKeys.key("9.3.10"), "9.3.10"));
+        assertFalse(set.contains(VersionKeys.key("9.3.01024"), "9.3.01024"));
+
+        // Grows past its first table without losing anything
+        for( int i = 0; i < 1000; i++ ) {
+            set.add("8." + i);
+        }
+
+        for( int i = 0; i < 1000; i++ ) {
+            assertTrue(set.contains(VersionKeys.key("8." + i), "8." + i));
+        }
+
+        set.clear();
+        assertFalse(set.contains(VersionKeys.key("8.1"), "8.1"));
+        assertFalse(set.contains(VersionKeys.NONE, "9.3.1-beta"));
+    }
+}
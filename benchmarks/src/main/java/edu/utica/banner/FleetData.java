@@ -0,0 +1,79 @@
+package edu.utica.banner;
+
+import java.util.*;
+
+/*
+ * Synthetic data for the benchmarks, sized like a large multi-instance fleet.  Everything
+ * is generated from a fixed seed so each run sees the same data.
+ */
+final class FleetData {
+    private FleetData() {
+    }
+
+    /*
+     * Generate distinct release versions in the styles ESM uses, e.g. "8.17.0.2", "9.3.22",
+     * "9.3.5.0.1", and "9.10".
+     */
+    static List<String> releases(Random random, int count) {
+        Set<String> releases = new LinkedHashSet<String>();
+
+        while( releases.size() < count ) {
+            switch( random.nextInt(4) ) {
+                case 0:
+                    releases.add("8." + random.nextInt(30) + "." + random.nextInt(3) + "." + random.nextInt(10));
+                    break;
+                case 1:
+                    releases.add("9.3." + random.nextInt(60));
+                    break;
+                case 2:
+                    releases.add("9.3." + random.nextInt(60) + ".0." + (1 + random.nextInt(3)));
+                    break;
+                default:
+                    releases.add("9." + random.nextInt(40));
+                    break;
+            }
+        }
+
+        return new ArrayList<String>(releases);
+    }
+
+    /*
+     * The ESM releases for every product in PendingBannerReleases.products[][], keyed by
+     * ESM product name as loadEsmReleases() returns them.
+     */
+    static Map<String,List<String>> esmReleases(Random random, int releasesPerProduct) {
+        Map<String,List<String>> esm = new HashMap<String,List<String>>();
+
+        for( String[] p : PendingBannerReleases.products ) {
+            esm.put(p[PendingBannerReleases.RELEASE], releases(random, releasesPerProduct));
+        }
+
+        return esm;
+    }
+
+    /*
+     * Generate GURPOST rows like "pcr-000163330_stu8170002", along with the product code
+     * each row would be decoded with.
+     */
+    static String[][] gurpostRows(Random random, int rows) {
+        List<String> codes = new ArrayList<String>();
+
+        for( String[] p : PendingBannerReleases.products ) {
+            if( p[PendingBannerReleases.GURPOST].length() > 0 ) {
+                codes.add(p[PendingBannerReleases.GURPOST]);
+            }
+        }
+
+        String[][] gurpost = new String[2][rows];
+
+        for( int i = 0; i < rows; i++ ) {
+            String code = codes.get(random.nextInt(codes.size()));
+
+            gurpost[0][i] = String.format("pcr-%09d_%s%d%02d%02d%02d", random.nextInt(1000000000), code,
+                                          8 + random.nextInt(2), random.nextInt(40), random.nextInt(3), random.nextInt(10));
+            gurpost[1][i] = code;
+        }
+
+        return gurpost;
+    }
+}
@@ -0,0 +1,67 @@
+package edu.utica.banner;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.*;
+
+/*
+ * Decoding a GURPOST table into version keys, with the old string-based decoding and with
+ * PendingBannerReleases.GurpostDecoder.  Run with "-prof gc" to see the allocation rates.
+ *
+ * classifier also finds each row's product codes with PendingBannerReleases.GurpostClassifier,
+ * as a bulk fetch does when it reads the whole table in one pass.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GurpostDecodeBenchmark {
+    @Param({"20000"})
+    public int rows;
+
+    private String[] patches;
+    private String[] codes;
+    private PendingBannerReleases.GurpostDecoder decoder;
+    private PendingBannerReleases.GurpostClassifier classifier;
+
+    @Setup
+    public void setup() {
+        String[][] gurpost = FleetData.gurpostRows(new Random(42), rows);
+
+        patches = gurpost[0];
+        codes = gurpost[1];
+        decoder = new PendingBannerReleases.GurpostDecoder();
+        classifier = new PendingBannerReleases.GurpostClassifier(new LinkedHashSet<String>(Arrays.asList(codes)));
+    }
+
+    @Benchmark
+    public void legacy(Blackhole blackhole) {
+        for( int i = 0; i < patches.length; i++ ) {
+            blackhole.consume(PendingBannerReleases.VersionKeys.key(Legacy.decodeGurpost(patches[i], codes[i])));
+        }
+    }
+
+    @Benchmark
+    public void decoder(Blackhole blackhole) {
+        for( int i = 0; i < patches.length; i++ ) {
+            if( decoder.decode(patches[i], codes[i]) ) {
+                blackhole.consume(PendingBannerReleases.VersionKeys.key(decoder));
+            }
+        }
+    }
+
+    @Benchmark
+    public void classifier(Blackhole blackhole) {
+        for( int i = 0; i < patches.length; i++ ) {
+            for( int m = 0, n = classifier.classify(patches[i]); m < n; m++ ) {
+                if( decoder.decode(patches[i], classifier.code(m)) ) {
+                    blackhole.consume(PendingBannerReleases.VersionKeys.key(decoder));
+                }
+            }
+        }
+    }
+}
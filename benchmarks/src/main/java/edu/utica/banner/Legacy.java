@@ -0,0 +1,104 @@
+package edu.utica.banner;
+
+import java.io.*;
+import java.util.*;
+
+/*
+ * The release processing used by PendingBannerReleases before version 1.5.0, kept here as
+ * a baseline for the benchmarks.
+ */
+final class Legacy {
+    private Legacy() {
+    }
+
+    // Decode a GURPOST patch name with split, replace, substring, and replaceFirst
+    static String decodeGurpost(String patch, String code) {
+        StringBuilder release = new StringBuilder();
+
+        String[] patchArr= patch.split("_");
+        String tmp = patchArr[1].replace(code, "");
+        String top = tmp.substring(0,1);
+        String rev = tmp.substring(1);
+
+        release.append(top);
+
+        for( int j = 0; j < (rev.length()-1); j+=2 ) {
+            String num = rev.substring(j,j+2);
+
+            if( num.startsWith("0") ) {
+                num = num.replaceFirst("0","");
+            }
+
+            release.append(".").append(num);
+        }
+
+        return release.toString();
+    }
+
+    // Remove each installed list from the ESM releases, then sort what is left as text
+    static String[] pending(List<String> esm, List<String> gurwadb, List<String> gurwapp,
+                            List<String> gurpost, List<String> verstbl) {
+        ArrayList<String> releaseResults = new ArrayList<String>(esm);
+
+        releaseResults.removeAll(gurwadb);
+        releaseResults.removeAll(gurwapp);
+        releaseResults.removeAll(gurpost);
+        releaseResults.removeAll(verstbl);
+
+        Collections.sort(releaseResults);
+
+        return releaseResults.toArray(new String[releaseResults.size()]);
+    }
+
+    // Print the table with a String.format call for every cell, as version 1.5.0 first did
+    static void printTable(PrintStream out, PendingBannerReleases.PendingMatrix matrix, int width, int pageWidth) {
+        int columnWidth = PendingBannerReleases.COLUMN_WIDTH;
+        int perPage = Math.max(1, (pageWidth - (width + 4)) / (columnWidth + 3));
+        int instances = matrix.instances.length;
+
+        for( int page = 0; page < instances; page += perPage ) {
+            int last = Math.min(instances, page + perPage);
+
+            StringBuilder separator = new StringBuilder(String.format("+-%-" + width + "s-+", " ").replace(" ", "-"));
+
+            for( int x = page; x < last; x++ ) {
+                separator.append(String.format("-%-" + columnWidth + "s-+", " ").replace(" ", "-"));
+            }
+
+            if( page > 0 ) {
+                out.println();
+            }
+
+            out.println(separator);
+            out.print(String.format("| %-" + width + "s |", "Product"));
+
+            for( int x = page; x < last; x++ ) {
+                out.print(String.format(" %-" + columnWidth + "s |", matrix.instances[x]));
+            }
+
+            out.println();
+            out.println(separator);
+
+            for( int i = matrix.first; i < matrix.last; i++ ) {
+                int rows = 1;
+
+                for( int x = page; x < last; x++ ) {
+                    rows = Math.max(rows, matrix.pendingCount(x, i));
+                }
+
+                for( int z = 0; z < rows; z++ ) {
+                    out.print(String.format("| %-" + width + "s |", z == 0 ? PendingBannerReleases.products[i][PendingBannerReleases.PRODUCT] : ""));
+
+                    for( int x = page; x < last; x++ ) {
+                        String release = z < matrix.pendingCount(x, i) ? matrix.pending(x, i, z) : "";
+                        out.print(String.format(" %-" + columnWidth + "s |", release));
+                    }
+
+                    out.println();
+                }
+
+                out.println(separator);
+            }
+        }
+    }
+}
@@ -0,0 +1,732 @@
+package edu.utica.banner;
+
+import java.io.*;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/*
+ * An end-to-end load test of PendingBannerReleases against stand-in databases on the local
+ * machine, so changes to how the program scales can be measured without an ESM server or
+ * any Banner instances.
+ *
+ * It builds a synthetic ESM database with a RELEASE table, and for each Banner instance an
+ * embedded H2 database in Oracle compatibility mode with GURWADB, GURWAPP, GURPOST, and the
+ * *VERS tables of the built-in products.  Each instance has a random share of the ESM
+ * releases installed, spread over the tables its product uses, and GURPOST is filled out
+ * with patches for other products.  Every run then takes the same steps as a real one:
+ * connecting, loading the ESM releases, scanning the instances concurrently, and writing
+ * the report (to nowhere) as each product is finished.  The latency of the runs and of
+ * each instance's scan, and the throughput, are shown at the end.
+ *
+ * The number of pending releases is known from how the data was generated, so before the
+ * measured runs the program is run once with each of CHECKS, and every run's count is
+ * checked against it.  If any count is wrong the load test exits with status 1.  Run it
+ * with:
+ *
+ *   $ java -cp benchmarks/target/benchmarks.jar edu.utica.banner.LoadTest [--<option>=<value> ...]
+ *
+ * The options and their defaults are in OPTIONS.  The databases are built in a temporary
+ * directory which is deleted at the end, unless --dir is given.
+ */
+public final class LoadTest {
+    // The options, and their default values
+    static final String[][] OPTIONS = {
+        {"instances", "24"},              // Number of Banner instances
+        {"releases", "400"},              // ESM releases per product, at most 1000
+        {"installed", "0.9"},             // Fraction of the ESM releases installed in each instance
+        {"gurpost", "20000"},             // GURPOST rows per instance, filled out with other products' patches
+        {"runs", "10"},                   // Runs which are measured
+        {"warmup", "2"},                  // Runs before those, which aren't
+        {"max_concurrent_scans", "8"},    // As in config.properties
+        {"bulk_fetch", "true"},
+        {"server_side_diff", "false"},    // Oracle only, so each instance falls back to a client-side scan
+        {"fetch_size", "500"},
+        {"query_timeout_seconds", "300"},
+        {"output_format", "table"},
+        {"h2_db_reader", "jdbc"},         // As h2.db.reader: jdbc, or mvstore to read the ESM file directly
+        {"summary", "false"},             // Show the metrics summary of the last run
+        {"seed", "42"},                   // Seed for the synthetic data
+        {"dir", ""},                      // Directory to build the databases in, which is kept
+    };
+
+    static final String ESM_USER = "sa";
+    static final String ESM_PASSWORD = "loadtest loadtest";   // File and user passwords, for CIPHER=AES
+    static final String BANNER_USER = "banner";
+    static final String BANNER_PASSWORD = "banner";
+
+    // The settings each checked against the expected number of pending releases, over the other options
+    static final String[][] CHECKS = {
+        {"h2_db_reader", "jdbc"},
+        {"h2_db_reader", "mvstore"},
+        {"bulk_fetch", "true"},
+        {"bulk_fetch", "false"},
+        {"server_side_diff", "true"},
+    };
+
+    // GURPOST product codes which aren't in the built-in products, for the filler patches
+    static final String[] OTHER_CODES = { "dgw", "ods", "wtl", "crm", "edw" };
+
+    private LoadTest() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        Properties options = parseOptions(args);
+
+        if( options == null ) {
+            System.exit(1);
+        }
+
+        int instances   = Integer.parseInt(options.getProperty("instances"));
+        int releases    = Integer.parseInt(options.getProperty("releases"));
+        double fraction = Double.parseDouble(options.getProperty("installed"));
+        int gurpostRows = Integer.parseInt(options.getProperty("gurpost"));
+        int runs        = Integer.parseInt(options.getProperty("runs"));
+        int warmup      = Integer.parseInt(options.getProperty("warmup"));
+        long seed       = Long.parseLong(options.getProperty("seed"));
+        boolean keep    = options.getProperty("dir").length() > 0;
+
+        // FleetData.releases() can only make so many distinct releases
+        if( instances < 1 || releases < 1 || releases > 1000 || runs < 1 ) {
+            System.err.println( "ERROR: --instances and --runs must be at least 1, and --releases from 1 to 1000." );
+            System.exit(1);
+        }
+
+        File dir = keep ? new File(options.getProperty("dir")) : File.createTempFile("loadtest", "");
+        boolean correct = true;
+
+        if( ! keep ) {
+            dir.delete();
+        }
+
+        dir.mkdirs();
+
+        String[][] products = PendingBannerReleases.products;
+        String esmJdbc = "jdbc:h2:" + new File(dir, "esm").getAbsolutePath() + ";CIPHER=AES";
+        String[] bannerJdbc = new String[instances];
+        String[] instanceNames = new String[instances];
+
+        for( int x = 0; x < instances; x++ ) {
+            bannerJdbc[x] = "jdbc:h2:" + new File(dir, "banner" + (x + 1)).getAbsolutePath() + ";MODE=Oracle";
+            instanceNames[x] = "BANNER" + (x + 1);
+        }
+
+        try {
+            /*
+             * Build the databases
+             */
+
+            System.out.println();
+            System.out.println( "Building the databases in " + dir + " ..." );
+
+            long started = System.nanoTime();
+            Map<String,List<String>> esmReleases = FleetData.esmReleases(new Random(seed), releases);
+            addTextReleases(esmReleases);
+            Map<String,Set<String>> current = new HashMap<String,Set<String>>();
+            List<Map<String,Set<String>>> installed = new ArrayList<Map<String,Set<String>>>();
+            long esmRows = createEsm(dir, esmJdbc, esmReleases, new Random(seed + 1), current);
+            long[] bannerRows = createBanners(dir, bannerJdbc, esmReleases, fraction, gurpostRows, seed + 2, installed);
+            int expected = expectedPending(current, installed);
+            long rowsPerRun = esmRows;
+
+            for( long rows : bannerRows ) {
+                rowsPerRun += rows;
+            }
+
+            System.out.println(String.format("Built in %.1f s: %d products, %d ESM releases, %d instances with %d rows each on average",
+                                             (System.nanoTime() - started) / 1e9, products.length, esmRows, instances,
+                                             (rowsPerRun - esmRows) / instances));
+
+            /*
+             * Check that every way of reading the releases finds what was generated
+             */
+
+            Map<String,String> queries = PendingBannerReleases.queries(false);
+            File formatFile = new File(dir, "jdbc_formats.properties");
+
+            System.out.println();
+            System.out.println(String.format("  %-24s %10s %10s", "Check", "Pending", "Expected"));
+
+            for( String[] check : CHECKS ) {
+                Properties checkOptions = new Properties();
+                checkOptions.putAll(options);
+                checkOptions.setProperty(check[0], check[1]);
+
+                int pending = run(esmJdbc, bannerJdbc, instanceNames, queries, checkOptions, formatFile, new RunMetrics());
+                correct &= pending == expected;
+
+                System.out.println(String.format("  %-24s %10d %10d%s", check[0] + "=" + check[1], pending, expected,
+                                                 pending == expected ? "" : "  WRONG"));
+            }
+
+            /*
+             * Run the program against them
+             */
+
+            long[] runTimes = new long[runs];
+            List<Long> scanTimes = new ArrayList<Long>();
+            RunMetrics metrics = null;
+
+            System.out.println();
+            System.out.println(String.format("  %-8s %10s %10s", "Run", "Time (ms)", "Pending"));
+
+            for( int r = -warmup; r < runs; r++ ) {
+                metrics = new RunMetrics();
+
+                started = System.nanoTime();
+                int pending = run(esmJdbc, bannerJdbc, instanceNames, queries, options, formatFile, metrics);
+                long nanos = System.nanoTime() - started;
+
+                correct &= pending == expected;
+
+                System.out.println(String.format("  %-8s %10.1f %10d%s", r < 0 ? "warm-up" : String.valueOf(r + 1), nanos / 1e6, pending,
+                                                 pending == expected ? "" : "  WRONG (expected " + expected + ")"));
+
+                if( r >= 0 ) {
+                    runTimes[r] = nanos;
+                    scanTimes.addAll(metrics.phaseTimes("scan"));
+                }
+            }
+
+            /*
+             * Show the latency and throughput of the measured runs
+             */
+
+            long total = 0;
+
+            for( long nanos : runTimes ) {
+                total += nanos;
+            }
+
+            long[] scans = new long[scanTimes.size()];
+
+            for( int s = 0; s < scans.length; s++ ) {
+                scans[s] = scanTimes.get(s);
+            }
+
+            System.out.println();
+            System.out.println(String.format("  %-14s %10s %10s %10s %10s", "Latency (ms)", "p50", "p95", "p99", "max"));
+            printLatency("Run", runTimes);
+            printLatency("Instance scan", scans);
+
+            System.out.println();
+            System.out.println(String.format("  Throughput: %.2f runs/s, %.1f instance scans/s, %.0f rows/s",
+                                             runs / (total / 1e9), runs * instances / (total / 1e9), runs * rowsPerRun / (total / 1e9)));
+
+            if( Boolean.parseBoolean(options.getProperty("summary")) ) {
+                System.out.println();
+                metrics.printSummary(System.out);
+            }
+
+            System.out.println();
+        }
+        finally {
+            if( ! keep ) {
+                for( File file : dir.listFiles() ) {
+                    file.delete();
+                }
+
+                dir.delete();
+            }
+        }
+
+        if( ! correct ) {
+            System.err.println( "ERROR: A run didn't find the expected number of pending releases." );
+            System.exit(1);
+        }
+    }
+
+    /*
+     * Read the --<option>=<value> arguments over the defaults in OPTIONS.
+     *
+     * Returns:
+     *   The options, or null (with the usage shown) if an argument isn't a known option
+     */
+    static Properties parseOptions(String[] args) {
+        Properties options = new Properties();
+
+        for( String[] option : OPTIONS ) {
+            options.setProperty(option[0], option[1]);
+        }
+
+        for( String arg : args ) {
+            int equals = arg.indexOf('=');
+            String name = equals > 2 && arg.startsWith("--") ? arg.substring(2, equals) : null;
+
+            if( name == null || ! options.containsKey(name) ) {
+                System.err.println( "Usage: LoadTest [--<option>=<value> ...]" );
+                System.err.println();
+                System.err.println( "Options (and their defaults):" );
+
+                for( String[] option : OPTIONS ) {
+                    System.err.println(String.format("  --%s=%s", option[0], option[1]));
+                }
+
+                return null;
+            }
+
+            options.setProperty(name, arg.substring(equals + 1).trim());
+        }
+
+        return options;
+    }
+
+    /*
+     * One run of the program, from opening the connections to closing them, with each step
+     * recorded in the metrics as it is in a real run.
+     *
+     * Returns:
+     *   The number of pending releases found
+     */
+    static int run(String esmJdbc, String[] bannerJdbc, String[] instanceNames, Map<String,String> queries,
+                   Properties options, File formatFile, RunMetrics metrics) throws Exception {
+        int maxConcurrentScans = Integer.parseInt(options.getProperty("max_concurrent_scans"));
+        boolean bulkFetch      = Boolean.parseBoolean(options.getProperty("bulk_fetch"));
+        boolean serverDiff     = Boolean.parseBoolean(options.getProperty("server_side_diff"));
+        int fetchSize          = Integer.parseInt(options.getProperty("fetch_size"));
+        int queryTimeout       = Integer.parseInt(options.getProperty("query_timeout_seconds"));
+        String outputFormat    = options.getProperty("output_format");
+        String[][] products    = PendingBannerReleases.products;
+        long started = System.nanoTime();
+
+        // Connect to everything at once, as main() does
+        ConnectionManager connectionManager = new ConnectionManager(formatFile, metrics);
+        String[] esm = new String[7];
+        esm[PendingBannerReleases.ESM_NAME]   = "ESM";
+        esm[PendingBannerReleases.ESM_JDBC]   = esmJdbc;
+        esm[PendingBannerReleases.ESM_USER]   = ESM_USER;
+        esm[PendingBannerReleases.ESM_PASS]   = ESM_PASSWORD;
+        esm[PendingBannerReleases.ESM_READER] = options.getProperty("h2_db_reader");
+
+        Future<Connection> esmFuture = esm[PendingBannerReleases.ESM_READER].equals("mvstore") ? null
+                                       : connectionManager.open("ESM", esmJdbc, ESM_USER, ESM_PASSWORD);
+        List<Future<Connection>> bannerFutures = new ArrayList<Future<Connection>>();
+
+        for( int x = 0; x < bannerJdbc.length; x++ ) {
+            bannerFutures.add(connectionManager.open(instanceNames[x], bannerJdbc[x], BANNER_USER, BANNER_PASSWORD));
+        }
+
+        Connection[] esmConnections = { esmFuture != null ? ConnectionManager.get(esmFuture) : null };
+        Connection[] bannerConnections = new Connection[bannerJdbc.length];
+
+        for( int x = 0; x < bannerJdbc.length; x++ ) {
+            bannerConnections[x] = ConnectionManager.get(bannerFutures.get(x));
+        }
+
+        connectionManager.shutdown();
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(maxConcurrentScans, bannerJdbc.length)));
+
+        List<Map<String,List<String>>> esmReleases = PendingBannerReleases.loadEsmReleases(executor, esmConnections, Collections.singletonList(esm),
+                                                                                           queries.get("esm_releases"), false, metrics);
+
+        if( esmConnections[0] != null ) {
+            esmConnections[0].close();
+        }
+
+        // Scan the instances, and write each product as soon as they have all finished it
+        PendingBannerReleases.PendingMatrix matrix = new PendingBannerReleases.PendingMatrix(0, products.length, instanceNames, esmReleases,
+                                                                                             new int[bannerJdbc.length]);
+        PreparedQueries[] bannerQueries = new PreparedQueries[bannerJdbc.length];
+        List<String[]> bannerInfo = new ArrayList<String[]>();
+
+        for( int x = 0; x < bannerJdbc.length; x++ ) {
+            bannerQueries[x] = new PreparedQueries(bannerConnections[x], queries, fetchSize, queryTimeout, metrics, instanceNames[x]);
+            bannerInfo.add(new String[7]);
+        }
+
+        List<Future<?>> scans = PendingBannerReleases.startScans(executor, bannerQueries, bannerInfo, matrix, bulkFetch, serverDiff, null, metrics);
+        executor.shutdown();
+
+        long reportStarted = System.nanoTime();
+        int width = 0;
+
+        for( String[] p : products ) {
+            width = Math.max(width, p[PendingBannerReleases.PRODUCT].length());
+        }
+
+        ReportFormat report = ReportFormat.create(outputFormat, new BufferedWriter(new Writer() {
+            public void write(char[] buffer, int offset, int length) {
+            }
+
+            public void flush() {
+            }
+
+            public void close() {
+            }
+        }, 1 << 16), matrix, width, 132);
+
+        report.begin();
+
+        for( int i = 0; i < products.length; i++ ) {
+            matrix.awaitProduct(i);
+            report.product(i);
+        }
+
+        report.end();
+        PendingBannerReleases.awaitScans(scans, matrix);
+        metrics.phase("report", null, reportStarted);
+
+        int pending = 0;
+
+        for( int x = 0; x < bannerJdbc.length; x++ ) {
+            if( matrix.error(x) != null ) {
+                throw new SQLException(instanceNames[x] + " " + matrix.error(x), matrix.cause(x));
+            }
+
+            for( int i = 0; i < products.length; i++ ) {
+                pending += matrix.pendingCount(x, i);
+            }
+
+            bannerQueries[x].close();
+            bannerConnections[x].close();
+        }
+
+        metrics.phase("total", null, started);
+
+        return pending;
+    }
+
+    /*
+     * Create the ESM database, with a RELEASE table holding the given releases.  About one
+     * in twenty of them is obsolete, and left out by the esm_releases query, so the rest are
+     * added to current, by ESM product name.
+     *
+     * Returns:
+     *   The number of RELEASE rows
+     */
+    static long createEsm(File dir, String jdbc, Map<String,List<String>> esmReleases, Random random,
+                          Map<String,Set<String>> current) throws SQLException {
+        new File(dir, "esm.mv.db").delete();
+
+        Connection connection = ConnectionManager.connect(jdbc, ESM_USER, ESM_PASSWORD);
+        connection.createStatement().execute("CREATE TABLE RELEASE (PRODUCT_ID VARCHAR(30), RELEASE_VERSION VARCHAR(30), STATUS VARCHAR(10))");
+
+        PreparedStatement insert = connection.prepareStatement("INSERT INTO RELEASE VALUES (?, ?, ?)");
+        long rows = 0;
+
+        for( String[] p : PendingBannerReleases.products ) {
+            if( ! current.containsKey(p[PendingBannerReleases.RELEASE]) ) {
+                current.put(p[PendingBannerReleases.RELEASE], new HashSet<String>());
+            }
+
+            for( String release : esmReleases.get(p[PendingBannerReleases.RELEASE]) ) {
+                boolean obsolete = random.nextInt(20) == 0;
+
+                insert.setString(1, p[PendingBannerReleases.RELEASE]);
+                insert.setString(2, release);
+                insert.setString(3, obsolete ? "OBSOLETE" : "GA");
+                insert.addBatch();
+                rows++;
+
+                if( ! obsolete ) {
+                    current.get(p[PendingBannerReleases.RELEASE]).add(release);
+                }
+            }
+        }
+
+        insert.executeBatch();
+        connection.close();
+
+        return rows;
+    }
+
+    /*
+     * Create the Banner databases, several at a time, each with its own random number
+     * generator so the data doesn't depend on the order they are built in.  The releases
+     * installed in each are added to installed (see createBanner()).
+     *
+     * Returns:
+     *   [instance] => the number of rows in its tables
+     */
+    static long[] createBanners(final File dir, final String[] jdbc, final Map<String,List<String>> esmReleases,
+                                final double fraction, final int gurpostRows, final long seed,
+                                final List<Map<String,Set<String>>> installed) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        List<Future<Long>> builds = new ArrayList<Future<Long>>();
+
+        for( int x = 0; x < jdbc.length; x++ ) {
+            final int instance = x;
+            final Map<String,Set<String>> instanceInstalled = new HashMap<String,Set<String>>();
+            installed.add(instanceInstalled);
+
+            builds.add(executor.submit(new Callable<Long>() {
+                public Long call() throws SQLException {
+                    new File(dir, "banner" + (instance + 1) + ".mv.db").delete();
+                    return createBanner(jdbc[instance], esmReleases, fraction, gurpostRows, new Random(seed + instance), instanceInstalled);
+                }
+            }));
+        }
+
+        executor.shutdown();
+
+        long[] rows = new long[jdbc.length];
+
+        for( int x = 0; x < jdbc.length; x++ ) {
+            try {
+                rows[x] = builds.get(x).get();
+            }
+            catch( ExecutionException ee ) {
+                throw ee.getCause() instanceof Exception ? (Exception) ee.getCause() : ee;
+            }
+        }
+
+        return rows;
+    }
+
+    /*
+     * Create one Banner database.  Each ESM release is installed with the given probability,
+     * in one of the tables its product uses, and GURPOST is then filled out to gurpostRows
+     * with patches for products which aren't being looked for.  Each release installed is
+     * added to installed under where it was put: its field of products[][] and the name
+     * there (e.g., "2 stu" for a GURPOST patch of stu), which products sharing the name
+     * (e.g., fss) both find it under.
+     *
+     * Returns:
+     *   The number of rows in its tables
+     */
+    static long createBanner(String jdbc, Map<String,List<String>> esmReleases, double fraction,
+                             int gurpostRows, Random random, Map<String,Set<String>> installed) throws SQLException {
+        Connection connection = ConnectionManager.connect(jdbc, BANNER_USER, BANNER_PASSWORD);
+        Statement statement = connection.createStatement();
+        Map<String,PreparedStatement> inserts = new HashMap<String,PreparedStatement>();
+        int[] sources = { PendingBannerReleases.GURWADB, PendingBannerReleases.GURWAPP, PendingBannerReleases.GURPOST, PendingBannerReleases.VERSTBL };
+
+        for( String table : new String[] { "GURWADB", "GURWAPP" } ) {
+            statement.execute("CREATE TABLE " + table + " (" + table + "_APPLICATION_NAME VARCHAR2(60), " + table + "_RELEASE VARCHAR2(30), "
+                              + table + "_ACTIVITY_DATE DATE)");
+            statement.execute("CREATE INDEX " + table + "_NAME_INDEX ON " + table + " (" + table + "_APPLICATION_NAME)");
+        }
+
+        statement.execute("CREATE TABLE GURPOST (GURPOST_PATCH VARCHAR2(100), GURPOST_ACTIVITY_DATE DATE)");
+
+        for( String[] p : PendingBannerReleases.products ) {
+            String table = p[PendingBannerReleases.VERSTBL];
+
+            if( table.length() > 0 ) {
+                statement.execute("CREATE TABLE " + table + " (" + table + "_RELEASE VARCHAR2(30), " + table + "_ACTIVITY_DATE DATE)");
+            }
+        }
+
+        statement.close();
+
+        long rows = 0;
+        int gurpost = 0;
+
+        for( String[] p : PendingBannerReleases.products ) {
+            // The tables this product's releases can be found in
+            List<Integer> fields = new ArrayList<Integer>();
+
+            for( int field : sources ) {
+                if( p[field].length() > 0 ) {
+                    fields.add(field);
+                }
+            }
+
+            if( fields.isEmpty() ) {
+                continue;
+            }
+
+            for( String release : esmReleases.get(p[PendingBannerReleases.RELEASE]) ) {
+                if( random.nextDouble() >= fraction ) {
+                    continue;
+                }
+
+                // A release GURPOST's patch names can't spell is put in one of the other tables, if there is one
+                List<Integer> releaseFields = fields;
+
+                if( ! release.matches("[0-9]+(\\.[0-9]{1,2})*") ) {
+                    releaseFields = new ArrayList<Integer>(fields);
+                    releaseFields.remove(Integer.valueOf(PendingBannerReleases.GURPOST));
+
+                    if( releaseFields.isEmpty() ) {
+                        continue;
+                    }
+                }
+
+                int field = releaseFields.get(random.nextInt(releaseFields.size()));
+
+                // Some are written with a leading zero (9.3.01), which is the same release only if it has a version key
+                if( field != PendingBannerReleases.GURPOST && random.nextInt(4) == 0 ) {
+                    release = release.replaceFirst("\\.([0-9])", ".0$1");
+                }
+
+                if( field == PendingBannerReleases.GURWADB ) {
+                    insert(connection, inserts, "GURWADB", p[field], release);
+                }
+                else if( field == PendingBannerReleases.GURWAPP ) {
+                    insert(connection, inserts, "GURWAPP", p[field], release);
+                }
+                else if( field == PendingBannerReleases.GURPOST ) {
+                    insert(connection, inserts, "GURPOST", patch(random, p[field], release));
+                    gurpost++;
+                }
+                else {
+                    insert(connection, inserts, p[field], release);
+                }
+
+                if( ! installed.containsKey(field + " " + p[field]) ) {
+                    installed.put(field + " " + p[field], new HashSet<String>());
+                }
+
+                installed.get(field + " " + p[field]).add(release);
+                rows++;
+            }
+        }
+
+        List<String> otherReleases = FleetData.releases(random, 200);
+
+        for( ; gurpost < gurpostRows; gurpost++ ) {
+            insert(connection, inserts, "GURPOST", patch(random, OTHER_CODES[random.nextInt(OTHER_CODES.length)],
+                                                         otherReleases.get(random.nextInt(otherReleases.size()))));
+            rows++;
+        }
+
+        for( PreparedStatement insert : inserts.values() ) {
+            insert.executeBatch();
+            insert.close();
+        }
+
+        connection.close();
+
+        return rows;
+    }
+
+    /*
+     * Change every twenty-fifth release of each product into one with no version key, which
+     * is only the same as a release with exactly the same text: in turn, one with too many
+     * numbers, one with a number over 1023, and one with letters.
+     */
+    static void addTextReleases(Map<String,List<String>> esmReleases) {
+        String[] suffixes = { ".0.0.0.0.0", ".1024", "-beta" };
+
+        for( List<String> releases : esmReleases.values() ) {
+            for( int r = 0; r < releases.size(); r += 25 ) {
+                releases.set(r, releases.get(r) + suffixes[(r / 25) % suffixes.length]);
+            }
+        }
+    }
+
+    /*
+     * What a release is the same as, the way the program compares them: a version of at
+     * most six numbers, none over 1023, by its numbers (so 9.3.01 is 9.3.1), and anything
+     * else by its text.
+     */
+    static String identity(String release) {
+        if( ! release.matches("[0-9]+(\\.[0-9]+){0,5}") ) {
+            return release;
+        }
+
+        StringBuilder numbers = new StringBuilder("#");
+
+        for( String number : release.split("\\.") ) {
+            String digits = number.replaceFirst("^0+(?=[0-9])", "");
+
+            if( digits.length() > 4 || Integer.parseInt(digits) > 1023 ) {
+                return release;
+            }
+
+            numbers.append('.').append(digits);
+        }
+
+        return numbers.toString();
+    }
+
+    /*
+     * The number of pending releases a run should find: for each instance and product, the
+     * current ESM releases of the product which weren't installed under any of its fields,
+     * as the same release by identity().  No built-in GURPOST code contains another, so a
+     * patch is only found for its own code.
+     */
+    static int expectedPending(Map<String,Set<String>> current, List<Map<String,Set<String>>> installed) {
+        int[] sources = { PendingBannerReleases.GURWADB, PendingBannerReleases.GURWAPP, PendingBannerReleases.GURPOST, PendingBannerReleases.VERSTBL };
+        int pending = 0;
+
+        for( Map<String,Set<String>> instanceInstalled : installed ) {
+            for( String[] p : PendingBannerReleases.products ) {
+                if( p[PendingBannerReleases.RELEASE].length() == 0 ) {
+                    continue;
+                }
+
+                Set<String> found = new HashSet<String>();
+
+                for( int field : sources ) {
+                    if( p[field].length() > 0 && instanceInstalled.containsKey(field + " " + p[field]) ) {
+                        for( String release : instanceInstalled.get(field + " " + p[field]) ) {
+                            found.add(identity(release));
+                        }
+                    }
+                }
+
+                for( String release : current.get(p[PendingBannerReleases.RELEASE]) ) {
+                    if( ! found.contains(identity(release)) ) {
+                        pending++;
+                    }
+                }
+            }
+        }
+
+        return pending;
+    }
+
+    // Add a row to a table's insert batch, with the current time as its activity date
+    private static void insert(Connection connection, Map<String,PreparedStatement> inserts, String table, String... values) throws SQLException {
+        PreparedStatement insert = inserts.get(table);
+
+        if( insert == null ) {
+            StringBuilder sql = new StringBuilder("INSERT INTO " + table + " VALUES (");
+
+            for( int v = 0; v < values.length; v++ ) {
+                sql.append("?, ");
+            }
+
+            insert = connection.prepareStatement(sql.append("CURRENT_TIMESTAMP)").toString());
+            inserts.put(table, insert);
+        }
+
+        for( int v = 0; v < values.length; v++ ) {
+            insert.setString(v + 1, values[v]);
+        }
+
+        insert.addBatch();
+    }
+
+    /*
+     * The GURPOST patch name for a release, e.g. "pcr-000163330_stu8170002" for stu 8.17.0.2:
+     * the top-level version number, and then each of the others as two digits.
+     */
+    static String patch(Random random, String code, String release) {
+        StringBuilder patch = new StringBuilder(String.format("pcr-%09d_%s", random.nextInt(1000000000), code));
+        String[] numbers = release.split("\\.");
+
+        patch.append(numbers[0]);
+
+        for( int n = 1; n < numbers.length; n++ ) {
+            if( numbers[n].length() < 2 ) {
+                patch.append('0');
+            }
+
+            patch.append(numbers[n]);
+        }
+
+        return patch.toString();
+    }
+
+    // Show the percentiles of some times, in milliseconds
+    private static void printLatency(String name, long[] nanos) {
+        if( nanos.length == 0 ) {
+            return;
+        }
+
+        long[] sorted = nanos.clone();
+        Arrays.sort(sorted);
+
+        System.out.println(String.format("  %-14s %10.1f %10.1f %10.1f %10.1f", name, percentile(sorted, 50) / 1e6, percentile(sorted, 95) / 1e6,
+                                         percentile(sorted, 99) / 1e6, sorted[sorted.length - 1] / 1e6));
+    }
+
+    // The nearest-rank percentile of some sorted values
+    private static long percentile(long[] sorted, int percent) {
+        return sorted[Math.max(0, (int) Math.ceil(percent / 100.0 * sorted.length) - 1)];
+    }
+}
@@ -0,0 +1,85 @@
+package edu.utica.banner;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.openjdk.jmh.annotations.*;
+
+/*
+ * Finding the pending releases for one product: the ESM releases minus the releases found
+ * in GURWADB, GURWAPP, GURPOST, and the *VERS table.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReleaseDiffBenchmark {
+    // Number of ESM releases for the product
+    @Param({"100", "500", "2000"})
+    public int releases;
+
+    // Fraction of the ESM releases which are installed
+    @Param({"0.9"})
+    public double installedFraction;
+
+    private List<String> esm;
+    private List<List<String>> installed;
+
+    private String[] sortedReleases;
+    private long[] sortedKeys;
+    private PendingBannerReleases.VersionSet versionSet;
+    private long[] installedBits;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        esm = FleetData.releases(random, releases);
+
+        // Spread the installed releases over the four tables
+        installed = new ArrayList<List<String>>();
+
+        for( int t = 0; t < 4; t++ ) {
+            installed.add(new ArrayList<String>());
+        }
+
+        for( String release : esm ) {
+            if( random.nextDouble() < installedFraction ) {
+                installed.get(random.nextInt(4)).add(release);
+            }
+        }
+
+        // What PendingMatrix prepares once per run
+        sortedReleases = esm.toArray(new String[esm.size()]);
+        sortedKeys = new long[sortedReleases.length];
+
+        for( int r = 0; r < sortedKeys.length; r++ ) {
+            sortedKeys[r] = PendingBannerReleases.VersionKeys.key(sortedReleases[r]);
+        }
+
+        PendingBannerReleases.VersionKeys.sort(sortedReleases, sortedKeys);
+
+        versionSet = new PendingBannerReleases.VersionSet();
+        installedBits = new long[(sortedReleases.length + 63) / 64];
+    }
+
+    @Benchmark
+    public String[] legacy() {
+        return Legacy.pending(esm, installed.get(0), installed.get(1), installed.get(2), installed.get(3));
+    }
+
+    @Benchmark
+    public long[] versionSet() {
+        versionSet.clear();
+        Arrays.fill(installedBits, 0);
+
+        for( List<String> table : installed ) {
+            versionSet.addAll(table);
+        }
+
+        PendingBannerReleases.markInstalled(versionSet, sortedReleases, sortedKeys, installedBits, 0);
+
+        return installedBits;
+    }
+}
@@ -0,0 +1,108 @@
+package edu.utica.banner;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.openjdk.jmh.annotations.*;
+
+/*
+ * Rendering the pending releases for every product across a fleet of Banner instances,
+ * with the original String.format table and each of the ReportFormat formats.  The output
+ * is discarded, so this measures formatting rather than the terminal.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TableRenderBenchmark {
+    @Param({"3", "11", "32"})
+    public int instances;
+
+    @Param({"200"})
+    public int releasesPerProduct;
+
+    // Fraction of the ESM releases which are still pending in each instance
+    @Param({"0.1"})
+    public double pendingFraction;
+
+    private PendingBannerReleases.PendingMatrix matrix;
+    private PrintStream out;
+    private Writer writer;
+    private int width;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        String[] names = new String[instances];
+
+        for( int x = 0; x < instances; x++ ) {
+            names[x] = "BAN" + x;
+        }
+
+        int products = PendingBannerReleases.products.length;
+        matrix = new PendingBannerReleases.PendingMatrix(0, products, names, FleetData.esmReleases(random, releasesPerProduct));
+
+        for( int x = 0; x < instances; x++ ) {
+            for( int i = 0; i < products; i++ ) {
+                BitSet pending = new BitSet();
+
+                for( int r = 0; r < matrix.releases(x, i).length; r++ ) {
+                    if( random.nextDouble() < pendingFraction ) {
+                        pending.set(r);
+                    }
+                }
+
+                matrix.installAllBut(x, i, pending);
+                matrix.finishProduct(x, i);
+            }
+        }
+
+        out = new PrintStream(new OutputStream() {
+            public void write(int b) {
+            }
+
+            public void write(byte[] b, int off, int len) {
+            }
+        });
+
+        writer = new BufferedWriter(new OutputStreamWriter(out), 1 << 16);
+
+        for( String[] p : PendingBannerReleases.products ) {
+            width = Math.max(width, p[PendingBannerReleases.PRODUCT].length());
+        }
+    }
+
+    @Benchmark
+    public void legacyTable() {
+        Legacy.printTable(out, matrix, width, 132);
+    }
+
+    @Benchmark
+    public void table() throws IOException {
+        render("table");
+    }
+
+    @Benchmark
+    public void csv() throws IOException {
+        render("csv");
+    }
+
+    @Benchmark
+    public void jsonLines() throws IOException {
+        render("json");
+    }
+
+    private void render(String format) throws IOException {
+        ReportFormat report = ReportFormat.create(format, writer, matrix, width, 132);
+        report.begin();
+
+        for( int i = matrix.first; i < matrix.last; i++ ) {
+            report.product(i);
+        }
+
+        report.end();
+    }
+}
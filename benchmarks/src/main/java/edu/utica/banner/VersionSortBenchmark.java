@@ -0,0 +1,59 @@
+package edu.utica.banner;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.openjdk.jmh.annotations.*;
+
+/*
+ * Sorting one product's ESM releases: as text (the old behavior, which puts 9.10 before
+ * 9.9), numerically with the VersionKeys.ORDER comparator, and numerically by keys which
+ * are parsed once, as PendingMatrix does.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class VersionSortBenchmark {
+    @Param({"100", "500", "2000"})
+    public int releases;
+
+    private List<String> esm;
+
+    @Setup
+    public void setup() {
+        esm = FleetData.releases(new Random(42), releases);
+    }
+
+    @Benchmark
+    public List<String> lexical() {
+        List<String> sorted = new ArrayList<String>(esm);
+        Collections.sort(sorted);
+
+        return sorted;
+    }
+
+    @Benchmark
+    public String[] versionComparator() {
+        SortedSet<String> sorted = new TreeSet<String>(PendingBannerReleases.VersionKeys.ORDER);
+        sorted.addAll(esm);
+
+        return sorted.toArray(new String[sorted.size()]);
+    }
+
+    @Benchmark
+    public String[] versionKeys() {
+        String[] sorted = esm.toArray(new String[esm.size()]);
+        long[] keys = new long[sorted.length];
+
+        for( int r = 0; r < keys.length; r++ ) {
+            keys[r] = PendingBannerReleases.VersionKeys.key(sorted[r]);
+        }
+
+        PendingBannerReleases.VersionKeys.sort(sorted, keys);
+
+        return sorted;
+    }
+}
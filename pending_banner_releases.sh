@@ -6,6 +6,49 @@ JAVA="/usr/bin/java"
 ESM_LIB_DIR="/u01/apache-tomcat-8.5.20/webapps/admin/WEB-INF/lib"
 ESM_H2_FILE="/u01/adminApp/ESMAdminProdDb.h2.db"
 TMP_FILE="/var/tmp/ESMAdminProdDb.h2.db"
+CDS_ARCHIVE="pending-banner-releases.jsa"
+
+# Only the H2 and OJDBC drivers are needed from the ESM lib directory, and a classpath of
+# just those three jars is much quicker to open than every jar in the directory
+H2_JAR=$(ls ${ESM_LIB_DIR}/h2-*.jar 2>/dev/null | head -1)
+OJDBC_JAR=$(ls ${ESM_LIB_DIR}/ojdbc*.jar 2>/dev/null | head -1)
+
+if [ -n "${H2_JAR}" ] && [ -n "${OJDBC_JAR}" ] ; then
+    CLASSPATH="pending-banner-releases.jar:${H2_JAR}:${OJDBC_JAR}"
+else
+    CLASSPATH="${ESM_LIB_DIR}/*:pending-banner-releases.jar"
+fi
+
+# On Java 13 or later, map in the class-data sharing archive if there is one, or write one
+# at the end of this run so the next run can.  It must be deleted if Java is upgraded.
+# The CDS warnings about classes which can't be archived are turned off, as they would be
+# written to stdout with the report.
+JAVA_VERSION=$(${JAVA} -version 2>&1 | sed -n 's/.*version "\(1\.\)\{0,1\}\([0-9]*\).*/\2/p' | head -1)
+
+if [ -n "${JAVA_VERSION}" ] && [ "${JAVA_VERSION}" -ge 13 ] ; then
+    if [ -f ${CDS_ARCHIVE} ] ; then
+        CDS_OPTS="-XX:SharedArchiveFile=${CDS_ARCHIVE} -Xshare:auto -Xlog:cds=off"
+    else
+        CDS_OPTS="-XX:ArchiveClassesAtExit=${CDS_ARCHIVE} -Xlog:cds=off"
+    fi
+fi
+
+run_program() {
+    ${JAVA} ${CDS_OPTS} ${JAVA_OPTS} -cp ${CLASSPATH} edu.utica.banner.PendingBannerReleases "$@"
+}
+
+# In snapshot mode the program reads the live H2 file itself, so no copy is needed.  Only
+# the top-level h2.db.mode is read: ESM_H2_FILE is the top-level h2.db.file's database, and
+# the esm.N servers' files are never copied, whatever their own esm.N.h2.db.mode says.
+H2_MODE=$(sed -n 's/^[[:space:]]*h2\.db\.mode[[:space:]]*=[[:space:]]*\([a-z]*\).*/\1/p' config.properties)
+
+if [ "${H2_MODE}" = "snapshot" ] ; then
+    run_program "$@"
+    STATUS=$?
+
+    echo
+    exit ${STATUS}
+fi
 
 if [ ! -f ${ESM_H2_FILE} ] ; then
     mvfile=$(echo "${ESM_H2_FILE}" | sed -e 's/\.h2\.db/\.mv\.db/')
@@ -27,10 +70,10 @@ fi
 
 cp ${ESM_H2_FILE} ${TMP_FILE}
 
-CLASSPATH="${ESM_LIB_DIR}/*:."
-${JAVA} -cp ${CLASSPATH} PendingBannerReleases
+run_program "$@"
+STATUS=$?
 
 rm -rf ${TMP_FILE}
 
 echo
-exit 0
+exit ${STATUS}